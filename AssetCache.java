@@ -0,0 +1,168 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+/* Process-wide cache of decoded images, keyed by resource path and target
+ * size, so levels that share sprites and backgrounds decode them once.
+ * Entries are evicted least recently used first once the cache holds more
+ * than its byte budget. Evicting only drops the cache's reference; bodies
+ * already holding an image keep it.
+ */
+public class AssetCache
+{
+	public static final long DEFAULT_BUDGET = 64L << 20; //64 MB
+
+	private static final AssetCache shared = new AssetCache(DEFAULT_BUDGET);
+
+	private LinkedHashMap<String, BufferedImage> images;
+	private long budget, bytesUsed;
+	private long externalBytes; //held elsewhere but counted, e.g. atlas pages
+	private long hits, misses, evictions;
+
+	public AssetCache(long byteBudget)
+	{
+		budget = byteBudget;
+		//access order, so iteration starts at the least recently used
+		images = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true);
+	}
+
+	public static AssetCache getShared() {
+		return shared;
+	}
+
+	// The decoded image at its own size
+	public BufferedImage getImage(String path) throws IOException {
+		return getImage(path, 0, 0);
+	}
+
+	/* The image scaled to width x height, or at its own size if either is
+	 * not positive. Decoding happens outside the lock, so two threads asking
+	 * for the same new asset may both decode it; the first one in is kept.
+	 */
+	public BufferedImage getImage(String path, int width, int height)
+		throws IOException
+	{
+		boolean scaled = width > 0 && height > 0;
+		String key = scaled ? path + "@" + width + "x" + height : path;
+		synchronized(this)
+		{
+			BufferedImage cached = images.get(key);
+			if(cached != null)
+			{
+				hits++;
+				return cached;
+			}
+			misses++;
+		}
+		BufferedImage image = scaled
+			? scale(getImage(path), width, height) : decode(path);
+		synchronized(this)
+		{
+			BufferedImage cached = images.get(key);
+			if(cached != null)
+				return cached;
+			images.put(key, image);
+			bytesUsed += sizeOf(image);
+			evict();
+		}
+		return image;
+	}
+
+	public synchronized void setBudget(long byteBudget)
+	{
+		budget = byteBudget;
+		evict();
+	}
+
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	/* Counts bytes held outside the cache, such as SpriteAtlas pages,
+	 * against the budget, evicting images to make room. Negative bytes
+	 * give them back.
+	 */
+	public synchronized void addExternalBytes(long bytes)
+	{
+		externalBytes += bytes;
+		bytesUsed += bytes;
+		evict();
+	}
+
+	public synchronized long getBytesUsed() {
+		return bytesUsed;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized void clear()
+	{
+		images.clear();
+		bytesUsed = externalBytes;
+	}
+
+	public synchronized String toString()
+	{
+		return "assets: " + images.size() + " cached, " + bytesUsed/1024
+			+ " KB of " + budget/1024 + " KB, " + hits + " hits, "
+			+ misses + " misses, " + evictions + " evictions";
+	}
+
+	// Drops least recently used entries, always keeping the newest one
+	private void evict()
+	{
+		Iterator<Map.Entry<String, BufferedImage>> it = images.entrySet().iterator();
+		while(bytesUsed > budget && images.size() > 1 && it.hasNext())
+		{
+			bytesUsed -= sizeOf(it.next().getValue());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	private static BufferedImage decode(String path) throws IOException
+	{
+		URL url = AssetCache.class.getResource(path);
+		if(url == null)
+			throw new IOException("No such asset: " + path);
+		BufferedImage image = ImageIO.read(url);
+		if(image == null)
+			throw new IOException("Unreadable asset: " + path);
+		return image;
+	}
+
+	private static BufferedImage scale(BufferedImage source, int width, int height)
+	{
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+			RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(source, 0, 0, width, height, null);
+		g.dispose();
+		return image;
+	}
+
+	static long sizeOf(BufferedImage image)
+	{
+		DataBuffer data = image.getRaster().getDataBuffer();
+		return (long)data.getSize() * data.getNumBanks()
+			* DataBuffer.getDataTypeSize(data.getDataType()) / 8;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,142 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/* Runs every level of a level file without a display, as fast as the
+ * machine allows. Each run gets its own WackoWorld driven by an optional
+ * input script (see InputLog). Runs go one after another on one thread:
+ * phys2d's colliders keep scratch vectors in static fields, so worlds
+ * stepped on several threads at once disturb each other's results.
+ *
+ * Usage: java BatchRunner [levelFile] [steps] [script] [runsPerLevel]
+ */
+public class BatchRunner
+{
+	public static final String DEFAULT_LEVEL_FILE = "rsrc/level.xml";
+	public static final int DEFAULT_STEPS = 3600;
+
+	public static void main(String[] args)
+	{
+		System.setProperty("java.awt.headless", "true");
+		String file = args.length > 0 ? args[0] : DEFAULT_LEVEL_FILE;
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_STEPS;
+		InputLog script = new InputLog();
+		if(args.length > 2)
+		{
+			script = InputLog.loadScript(args[2]);
+			if(script == null)
+			{
+				System.out.println("No such script: " + args[2]);
+				return;
+			}
+		}
+		int runsPerLevel = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+		int levels = WorldBuilder.getLevelCount(file);
+		List<LevelRun> runs = new ArrayList<LevelRun>();
+		for(int level = 0; level < levels; level++)
+			for(int i = 0; i < runsPerLevel; i++)
+				runs.add(new LevelRun(file, level, steps, script));
+
+		long start = System.nanoTime();
+		long totalSteps = 0;
+		for(LevelRun r : runs)
+		{
+			r.call();
+			totalSteps += r.getStepsTaken();
+			System.out.println(r);
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println(runs.size() + " runs: " + totalSteps + " steps in "
+			+ elapsed/1000000 + " ms, "
+			+ (long)(totalSteps/(elapsed/1e9)) + " steps/s");
+		System.out.println(AssetCache.getShared());
+	}
+
+	// Builds go through LevelLoader, like the game's
+	public static WackoWorld buildLevel(String file, int level)
+	{
+		return LevelLoader.build(file, level);
+	}
+
+	public static class LevelRun
+	{
+		private String file;
+		private int level, maxSteps, stepsTaken, resets, respawns, completedAt;
+		private long nanos;
+		private InputLog script;
+
+		public LevelRun(String file, int level, int maxSteps, InputLog script)
+		{
+			this.file = file;
+			this.level = level;
+			this.maxSteps = maxSteps;
+			this.script = script;
+			completedAt = -1;
+		}
+
+		/* Plays the level the way GameSession.step does, minus drawing and
+		 * moving on to the next level
+		 */
+		public LevelRun call()
+		{
+			WackoWorld world = buildLevel(file, level);
+			int next = 0, scriptStart = 0; //the script restarts with the level
+			long start = System.nanoTime();
+			for(int tick = 0; tick < maxSteps; tick++)
+			{
+				//a checkpoint saves bob from a full reset
+				if(world.isBobOutOfBounds() || world.isBobHurt())
+				{
+					if(world.respawnBob())
+						respawns++;
+					else
+					{
+						resets++;
+						world.reset();
+						next = 0;
+						scriptStart = tick;
+					}
+				}
+				if(world.isComplete())
+				{
+					completedAt = tick;
+					break;
+				}
+				next = script.apply(world.getBob(), tick - scriptStart, next);
+				world.step();
+				stepsTaken++;
+			}
+			nanos = System.nanoTime() - start;
+			return this;
+		}
+
+		public int getLevel() {
+			return level;
+		}
+
+		public int getStepsTaken() {
+			return stepsTaken;
+		}
+
+		public int getResets() {
+			return resets;
+		}
+
+		public int getRespawns() {
+			return respawns;
+		}
+
+		public boolean isComplete() {
+			return completedAt >= 0;
+		}
+
+		public String toString()
+		{
+			String outcome = isComplete() ? "complete at step " + completedAt
+				: "not complete after " + stepsTaken + " steps";
+			long stepsPerSecond = nanos > 0 ? (long)(stepsTaken/(nanos/1e9)) : 0;
+			return "level " + level + ": " + outcome + ", " + resets + " resets, "
+				+ respawns + " respawns, " + stepsPerSecond + " steps/s";
+		}
+	}
+}
\ No newline at end of file
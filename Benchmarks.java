@@ -0,0 +1,211 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import net.phys2d.math.*;
+import net.phys2d.raw.*;
+import net.phys2d.raw.shapes.*;
+
+/* Microbenchmarks for the hot paths: stepping every level in a level file
+ * and synthetic levels of growing size, building the first and last
+ * level, painting the panel offscreen, CharBody.updateJump, and
+ * DrawableBody.getWidth/getHeight on a polygon. Each benchmark is run for
+ * some warmup rounds, then timed over measured rounds, and written as CSV:
+ *   benchmark,param,ops_per_round,rounds,min_ns,median_ns,mean_ns
+ * with times per operation, so runs can be diffed or plotted.
+ *
+ * Usage: java Benchmarks [levelFile] [outFile.csv]
+ */
+public class Benchmarks
+{
+	public static final String HEADER =
+		"benchmark,param,ops_per_round,rounds,min_ns,median_ns,mean_ns";
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 10;
+	private static final int STEPS_PER_ROUND = 300;
+	private static final int[] SYNTHETIC_SIZES = {50, 200, 800};
+	private static final int VIEW_WIDTH = 500, VIEW_HEIGHT = 400;
+
+	private PrintStream out;
+	private static volatile Object sink; //keeps results from being optimized away
+
+	public static void main(String[] args) throws IOException
+	{
+		System.setProperty("java.awt.headless", "true");
+		String file = args.length > 0 ? args[0] : BatchRunner.DEFAULT_LEVEL_FILE;
+		PrintStream out = System.out;
+		if(args.length > 1)
+			out = new PrintStream(new FileOutputStream(args[1]));
+		new Benchmarks(out).runAll(file);
+		if(out != System.out)
+			out.close();
+	}
+
+	public Benchmarks(PrintStream o)
+	{
+		out = o;
+	}
+
+	public void runAll(String file)
+	{
+		out.println(HEADER);
+		int levels = WorldBuilder.getLevelCount(file);
+		for(int level = 0; level < levels; level++)
+			benchStep("step", file + "#" + level, WorldBuilder.buildWorld(file, level));
+		for(int i = 0; i < SYNTHETIC_SIZES.length; i++)
+			benchStep("step_synthetic", Integer.toString(SYNTHETIC_SIZES[i]),
+				buildSynthetic(SYNTHETIC_SIZES[i]));
+		if(levels > 0)
+		{
+			benchBuild(file, 0);
+			benchBuild(file, levels - 1);
+			benchPaint(file);
+			benchUpdateJump(file);
+		}
+		benchPolygonSize();
+	}
+
+	private void benchStep(String name, String param, final WackoWorld w)
+	{
+		measure(name, param, STEPS_PER_ROUND, new Round() {
+			public void setUp() {
+				w.reset();
+			}
+			public void run(int ops) {
+				for(int i = 0; i < ops; i++)
+					w.step();
+			}
+		});
+	}
+
+	private void benchBuild(final String file, final int level)
+	{
+		measure("build", file + "#" + level, 10, new Round() {
+			public void run(int ops) {
+				for(int i = 0; i < ops; i++)
+					sink = WorldBuilder.buildWorld(file, level);
+			}
+		});
+	}
+
+	private void benchPaint(String file)
+	{
+		final Phys2DGamePanel panel = new Phys2DGamePanel(file);
+		panel.setSize(VIEW_WIDTH, VIEW_HEIGHT);
+		panel.publishFrame();
+		final BufferedImage image =
+			new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		measure("paint", file + "#0", 60, new Round() {
+			public void run(int ops) {
+				for(int i = 0; i < ops; i++)
+				{
+					Graphics2D g = image.createGraphics();
+					panel.paint(g);
+					g.dispose();
+				}
+			}
+		});
+	}
+
+	// Bob standing on the ground, asked again whether he may jump
+	private void benchUpdateJump(String file)
+	{
+		final WackoWorld w = WorldBuilder.buildWorld(file, 0);
+		for(int i = 0; i < STEPS_PER_ROUND; i++)
+			w.step();
+		final CharBody bob = w.getBob();
+		measure("updateJump", file + "#0", 10000, new Round() {
+			public void run(int ops) {
+				for(int i = 0; i < ops; i++)
+				{
+					bob.reset();
+					bob.updateJump();
+				}
+			}
+		});
+	}
+
+	private void benchPolygonSize()
+	{
+		ROVector2f[] verts = new ROVector2f[8];
+		for(int i = 0; i < verts.length; i++)
+		{
+			double theta = 2*Math.PI*i/verts.length;
+			verts[i] = new Vector2f(
+				(float)(20*Math.cos(theta)), (float)(15*Math.sin(theta)));
+		}
+		final DrawableBody body = new CharBody(new Polygon(verts), 1);
+		measure("getWidthHeight", "polygon8", 100000, new Round() {
+			public void run(int ops) {
+				float total = 0;
+				for(int i = 0; i < ops; i++)
+					total += body.getWidth() + body.getHeight();
+				sink = total;
+			}
+		});
+	}
+
+	/* A floor, walls, and count boxes stacked in columns above it, with
+	 * bob at the left.
+	 */
+	public static WackoWorld buildSynthetic(int count)
+	{
+		int columns = (int)Math.ceil(Math.sqrt(count));
+		int width = Math.max(600, columns*30 + 200);
+		int height = Math.max(600, columns*30 + 300);
+		WackoWorld w = new WackoWorld(0, 30f, width, height, 5, 0, -30.3f, "");
+		StaticBody floor = new StaticBody(new Box(width, 20));
+		floor.setPosition(width/2, height - 10);
+		w.add(floor);
+		for(int side = 0; side < 2; side++)
+		{
+			StaticBody wall = new StaticBody(new Box(20, height));
+			wall.setPosition(side == 0 ? 10 : width - 10, height/2);
+			w.add(wall);
+		}
+		for(int i = 0; i < count; i++)
+		{
+			Body b = new Body(new Box(20, 20), 1);
+			b.setPosition(150 + (i % columns)*30, height - 40 - (i / columns)*30);
+			w.add(b);
+		}
+		CharBody bob = new CharBody(new Box(30, 40), 1);
+		bob.setPosition(60, height - 50);
+		w.add(bob);
+		w.setBroadphase(WackoWorld.DEFAULT_BROADPHASE);
+		w.saveInitialState();
+		return w;
+	}
+
+	private void measure(String name, String param, int ops, Round round)
+	{
+		double[] nanosPerOp = new double[MEASURED_ROUNDS];
+		for(int r = 0; r < WARMUP_ROUNDS + MEASURED_ROUNDS; r++)
+		{
+			round.setUp();
+			long start = System.nanoTime();
+			round.run(ops);
+			long elapsed = System.nanoTime() - start;
+			if(r >= WARMUP_ROUNDS)
+				nanosPerOp[r - WARMUP_ROUNDS] = elapsed / (double)ops;
+		}
+		double[] sorted = nanosPerOp.clone();
+		Arrays.sort(sorted);
+		double mean = 0;
+		for(int i = 0; i < sorted.length; i++)
+			mean += sorted[i] / sorted.length;
+		out.println(name + "," + param + "," + ops + "," + MEASURED_ROUNDS + ","
+			+ Math.round(sorted[0]) + "," + Math.round(sorted[sorted.length/2]) + ","
+			+ Math.round(mean));
+		out.flush();
+	}
+
+	// One timed round; setUp is not timed
+	private static abstract class Round
+	{
+		public void setUp() {}
+		public abstract void run(int ops);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,127 @@
+import net.phys2d.raw.*;
+import net.phys2d.raw.shapes.AABox;
+import java.util.Arrays;
+
+/* Uniform grid over a world's bodies by bounding box, kept by WackoWorld
+ * so the panel can ask which bodies are inside the view. Bodies only move
+ * between cells when their cell range changes, so static geometry is
+ * indexed once. Queries return bodies in world order, which keeps the
+ * drawing order the same as drawing everything.
+ */
+public class BodyGrid
+{
+	public static final int DEFAULT_CELL_SIZE = 128;
+
+	private UniformGrid grid; //body indices
+	private int[] firstColumn, firstRow, lastColumn, lastRow; //each body's cells
+	private int[] found;
+
+	public BodyGrid(int worldWidth, int worldHeight)
+	{
+		this(worldWidth, worldHeight, DEFAULT_CELL_SIZE);
+	}
+
+	public BodyGrid(int worldWidth, int worldHeight, int cellSize)
+	{
+		grid = new UniformGrid(worldWidth, worldHeight, cellSize);
+	}
+
+	// Indexes every body from scratch, e.g. after bodies are added
+	public void rebuild(BodyList bodies)
+	{
+		int n = bodies.size();
+		grid.clear();
+		firstColumn = new int[n];
+		firstRow = new int[n];
+		lastColumn = new int[n];
+		lastRow = new int[n];
+		found = new int[n];
+		for(int i = 0; i < n; i++)
+		{
+			setRange(i, bodies.get(i));
+			forEachCell(i, firstColumn[i], firstRow[i], lastColumn[i], lastRow[i], true);
+		}
+	}
+
+	// Moves body i to the cells it covers now, if they changed
+	public void update(int i, Body b)
+	{
+		int c0 = firstColumn[i], r0 = firstRow[i];
+		int c1 = lastColumn[i], r1 = lastRow[i];
+		setRange(i, b);
+		if(c0 == firstColumn[i] && r0 == firstRow[i]
+			&& c1 == lastColumn[i] && r1 == lastRow[i])
+			return;
+		forEachCell(i, c0, r0, c1, r1, false);
+		forEachCell(i, firstColumn[i], firstRow[i], lastColumn[i], lastRow[i], true);
+	}
+
+	/* Puts the bodies whose bounds overlap the rectangle into out, in the
+	 * order they appear in bodies.
+	 */
+	public void query(BodyList bodies, float x, float y, float width, float height,
+		BodyList out)
+	{
+		out.clear();
+		if(found == null)
+			return;
+		grid.startQuery(found.length);
+		int count = 0;
+		int c0 = grid.column(x), c1 = grid.column(x + width);
+		int r0 = grid.row(y), r1 = grid.row(y + height);
+		for(int r = r0; r <= r1; r++)
+		{
+			for(int c = c0; c <= c1; c++)
+			{
+				int cell = grid.cell(c, r);
+				int[] members = grid.getMembers(cell);
+				for(int k = 0; k < grid.getCount(cell); k++)
+				{
+					int j = members[k];
+					if(!grid.visit(j))
+						continue;
+					if(overlaps(bodies.get(j), x, y, width, height))
+						found[count++] = j;
+				}
+			}
+		}
+		Arrays.sort(found, 0, count);
+		for(int k = 0; k < count; k++)
+			out.add(bodies.get(found[k]));
+	}
+
+	private static boolean overlaps(Body b, float x, float y, float width, float height)
+	{
+		AABox bounds = b.getShape().getBounds();
+		float cx = b.getPosition().getX() + bounds.getOffsetX();
+		float cy = b.getPosition().getY() + bounds.getOffsetY();
+		return cx - bounds.getWidth()/2 < x + width && x < cx + bounds.getWidth()/2
+			&& cy - bounds.getHeight()/2 < y + height && y < cy + bounds.getHeight()/2;
+	}
+
+	private void setRange(int i, Body b)
+	{
+		AABox bounds = b.getShape().getBounds();
+		float cx = b.getPosition().getX() + bounds.getOffsetX();
+		float cy = b.getPosition().getY() + bounds.getOffsetY();
+		firstColumn[i] = grid.column(cx - bounds.getWidth()/2);
+		lastColumn[i] = grid.column(cx + bounds.getWidth()/2);
+		firstRow[i] = grid.row(cy - bounds.getHeight()/2);
+		lastRow[i] = grid.row(cy + bounds.getHeight()/2);
+	}
+
+	// Adds body i to, or removes it from, every cell in a range
+	private void forEachCell(int i, int c0, int r0, int c1, int r1, boolean add)
+	{
+		for(int r = r0; r <= r1; r++)
+		{
+			for(int c = c0; c <= c1; c++)
+			{
+				if(add)
+					grid.insert(grid.cell(c, r), i);
+				else
+					grid.remove(grid.cell(c, r), i);
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -2,7 +2,6 @@ import net.phys2d.raw.*;
 import net.phys2d.math.*;
 import net.phys2d.raw.shapes.*;
 import java.awt.Image;
-import java.awt.image.BufferedImage;
 
 public class CharBody extends DrawableBody
 {
@@ -12,7 +11,6 @@ public class CharBody extends DrawableBody
 	public static final float SPS = 60f; //steps per second taken
 	
 	private static final int BOUNDING_BORDER = 10;
-	private static final double JUMP_THRESHOLD = 15; //in degrees
 	private static final int MAX_JUMP_TIMER = 3;
 	
 	private float jumpSpeed;
@@ -20,7 +18,7 @@ public class CharBody extends DrawableBody
 	private float maxRunningVelocity;
 	private boolean facingLeft, isRunning, canJump, isDancing;
 	private boolean isLeftPressed, isRightPressed;
-	private World world;
+	private WackoWorld world;
 	private int jumpTimer;
 
 	public CharBody(Shape s, float mass)
@@ -29,10 +27,22 @@ public class CharBody extends DrawableBody
 		maxRunningVelocity = DEFAULT_MAX_VX;
 		jumpSpeed = DEFAULT_JUMP_SPEED;
 		horizMovementPower = MAX_H_ACCEL;
-		jumpTimer = 1;
+		reset();
 		setRotatable(false);
 	}
 	
+	// Puts the jump, animation and input state back to how it was built
+	public void reset()
+	{
+		jumpTimer = 1;
+		canJump = false;
+		facingLeft = false;
+		isRunning = false;
+		isDancing = false;
+		isLeftPressed = false;
+		isRightPressed = false;
+	}
+	
 	public void jump()
 	{
 		if(canJump)
@@ -127,52 +137,22 @@ public class CharBody extends DrawableBody
 	}
 	*/
 	
-	//if this cannot jump, check if he has landed on ground properly
+	/* If this cannot jump, check if he has landed on ground properly. The
+	 * world's contact stream already knows whether he is standing on
+	 * something (see ContactStream.GROUND_ANGLE).
+	 */
 	public void updateJump()
 	{
 		if(!canJump)
 		{
-			CollisionEvent[] contacts = world.getContacts(this);
 			jumpTimer++;
 			if(jumpTimer > MAX_JUMP_TIMER)
 				jumpTimer = MAX_JUMP_TIMER;
-			for(int i = 0; i < contacts.length; i++)
-			{
-				ROVector2f normal = contacts[i].getNormal();
-				if(contacts[i].getBodyA().getID() == this.getID())
-					normal = MathUtil.scale(normal, -1);
-				double angle = getAngle(normal);
-				double threshold = Math.toRadians(JUMP_THRESHOLD);
-				if(angle > threshold && angle < Math.PI - threshold && jumpTimer == MAX_JUMP_TIMER)
-					canJump = true;
-			}
+			if(jumpTimer == MAX_JUMP_TIMER && world.isOnGround(this))
+				canJump = true;
 		}
 	}
 	
-	// Precondition: Vector length is greater than 0
-	// Range: -PI to PI... and -0.
-	private static double getAngle(ROVector2f normal)
-	{
-		float x = normal.getX(), y = -normal.getY();
-		if(Math.abs(x) == 0 && y > 0)
-			return Math.PI/2;
-		if(Math.abs(x) == 0 && y < 0)
-			return -Math.PI/2;
-		double stdAngle = Math.atan(y/x);
-		if(x > 0)
-			return stdAngle;
-		else if(stdAngle < 0)
-			return Math.PI + stdAngle;
-		else
-			return -Math.PI + stdAngle;
-	}
-
-	public BufferedImage getImage(int frameCount)
-	{
-		int motion = getMotion();
-		return animArray[motion][getFrame(motion, frameCount)];
-	}
-
 	public int getMotion()
 	{
 		if(animArray.length == 1)
@@ -202,7 +182,7 @@ public class CharBody extends DrawableBody
 		isDancing = !isDancing;
 	}
 	
-	public void setWorld(World w)
+	public void setWorld(WackoWorld w)
 	{
 		world = w;
 	}
@@ -0,0 +1,289 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import net.phys2d.math.ROVector2f;
+import net.phys2d.raw.*;
+
+/* Turns a world's arbiters into contact events once per step: BEGIN the
+ * first step two bodies touch, PERSIST while they keep touching and END
+ * the step they part. Events go to listeners and into a fixed-size ring
+ * buffer that readers can catch up on by sequence number; the oldest are
+ * overwritten once it is full. Whether each body is standing on something
+ * is worked out at the same time, so asking costs nothing.
+ */
+public class ContactStream
+{
+	public static final byte BEGIN = 0;
+	public static final byte PERSIST = 1;
+	public static final byte END = 2;
+	public static final int DEFAULT_CAPACITY = 1024;
+	/* A contact counts as ground if its normal points up at more than this
+	 * many degrees from horizontal
+	 */
+	public static final double GROUND_ANGLE = 15;
+	private static final double GROUND_SLOPE = Math.tan(Math.toRadians(GROUND_ANGLE));
+
+	// Told about every event as it happens, during the world's step
+	public interface ContactListener
+	{
+		public void contactEvent(byte type, Body a, Body b, float normalX, float normalY);
+	}
+
+	private int mask;
+	private byte[] types;
+	private Body[] bodiesA, bodiesB;
+	private float[] normalsX, normalsY;
+	private int[] steps;
+	private long written;
+	private int step;
+	private ArrayList<ContactListener> listeners;
+
+	//pairs touching last step and this step, as open addressing sets
+	private PairSet previous, current;
+	private boolean[] onGround; //by index in the world's body list
+
+	public ContactStream()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	// capacity is rounded up to a power of two
+	public ContactStream(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		mask = size - 1;
+		types = new byte[size];
+		bodiesA = new Body[size];
+		bodiesB = new Body[size];
+		normalsX = new float[size];
+		normalsY = new float[size];
+		steps = new int[size];
+		listeners = new ArrayList<ContactListener>();
+		previous = new PairSet();
+		current = new PairSet();
+		onGround = new boolean[0];
+	}
+
+	public void addListener(ContactListener l) {
+		listeners.add(l);
+	}
+
+	public void removeListener(ContactListener l) {
+		listeners.remove(l);
+	}
+
+	/* Forgets every contact without sending END events, e.g. when the
+	 * world is reset and all arbiters are thrown away.
+	 */
+	public void clear(int bodyCount)
+	{
+		previous.clear();
+		current.clear();
+		if(onGround.length != bodyCount)
+			onGround = new boolean[bodyCount];
+		else
+			Arrays.fill(onGround, false);
+	}
+
+	/* Moves the ground flags along when the world's body list changes,
+	 * keeping every contact. index still maps bodies to their old places.
+	 */
+	public void reindex(BodyList bodies, Map<Body, Integer> index)
+	{
+		boolean[] was = onGround;
+		onGround = new boolean[bodies.size()];
+		for(int i = 0; i < onGround.length; i++)
+		{
+			Integer j = index.get(bodies.get(i));
+			onGround[i] = j != null && j < was.length && was[j];
+		}
+	}
+
+	/* Compares the world's arbiters with last step's and publishes the
+	 * differences. index maps a body to its place in the world's list.
+	 * Pairs whose bodies both carry restingBit lost their arbiters to
+	 * sleep, not by parting, so they stay touching without events.
+	 */
+	public void update(ArbiterList arbiters, Map<Body, Integer> index, long restingBit)
+	{
+		step++;
+		PairSet swap = previous;
+		previous = current;
+		current = swap;
+		current.clear();
+		Arrays.fill(onGround, false);
+		for(int i = 0; i < arbiters.size(); i++)
+		{
+			Arbiter a = arbiters.get(i);
+			int n = a.getNumContacts();
+			if(n == 0)
+				continue;
+			Body b1 = a.getBody1(), b2 = a.getBody2();
+			Contact[] points = a.getContacts();
+			current.add(b1, b2);
+			ROVector2f normal = points[0].getNormal();
+			publish(previous.contains(b1, b2) ? PERSIST : BEGIN,
+				b1, b2, normal.getX(), normal.getY());
+			for(int k = 0; k < n; k++)
+			{
+				normal = points[k].getNormal();
+				float nx = normal.getX(), ny = normal.getY();
+				//the normal points from body1 into body2; up is -y
+				if(ny > Math.abs(nx)*GROUND_SLOPE)
+					setOnGround(index.get(b1));
+				if(-ny > Math.abs(nx)*GROUND_SLOPE)
+					setOnGround(index.get(b2));
+			}
+		}
+		for(int i = 0; i < previous.size(); i++)
+		{
+			Body b1 = previous.getBodyA(i), b2 = previous.getBodyB(i);
+			if(current.contains(b1, b2))
+				continue;
+			if((b1.getBitmask() & b2.getBitmask() & restingBit) != 0)
+				current.add(b1, b2);
+			else
+				publish(END, b1, b2, 0, 0);
+		}
+	}
+
+	private void setOnGround(Integer i)
+	{
+		if(i != null && i < onGround.length)
+			onGround[i] = true;
+	}
+
+	// Whether the body at this index had a contact from below last step
+	public boolean isOnGround(int bodyIndex) {
+		return bodyIndex >= 0 && bodyIndex < onGround.length && onGround[bodyIndex];
+	}
+
+	private void publish(byte type, Body a, Body b, float nx, float ny)
+	{
+		int slot = (int)(written & mask);
+		types[slot] = type;
+		bodiesA[slot] = a;
+		bodiesB[slot] = b;
+		normalsX[slot] = nx;
+		normalsY[slot] = ny;
+		steps[slot] = step;
+		written++;
+		for(int i = 0; i < listeners.size(); i++)
+			listeners.get(i).contactEvent(type, a, b, nx, ny);
+	}
+
+	// Sequence number the next event will get
+	public long getWritten() {
+		return written;
+	}
+
+	// Oldest sequence number still in the buffer
+	public long getOldest() {
+		return Math.max(0, written - mask - 1);
+	}
+
+	public byte getType(long seq) {
+		return types[(int)(seq & mask)];
+	}
+
+	public Body getBodyA(long seq) {
+		return bodiesA[(int)(seq & mask)];
+	}
+
+	public Body getBodyB(long seq) {
+		return bodiesB[(int)(seq & mask)];
+	}
+
+	public float getNormalX(long seq) {
+		return normalsX[(int)(seq & mask)];
+	}
+
+	public float getNormalY(long seq) {
+		return normalsY[(int)(seq & mask)];
+	}
+
+	// The stream's step count when the event was published
+	public int getStep(long seq) {
+		return steps[(int)(seq & mask)];
+	}
+
+	// Body pairs keyed by ID, with linear probing; grows but never shrinks
+	private static class PairSet
+	{
+		private long[] keys = new long[64]; //0 is empty, so keys are stored + 1
+		private Body[] listA = new Body[32], listB = new Body[32]; //insertion order
+		private int count;
+
+		public int size() {
+			return count;
+		}
+
+		public Body getBodyA(int i) {
+			return listA[i];
+		}
+
+		public Body getBodyB(int i) {
+			return listB[i];
+		}
+
+		public void clear()
+		{
+			if(count == 0)
+				return;
+			Arrays.fill(keys, 0);
+			Arrays.fill(listA, 0, count, null);
+			Arrays.fill(listB, 0, count, null);
+			count = 0;
+		}
+
+		public void add(Body a, Body b)
+		{
+			if(2*(count + 1) > keys.length)
+				grow();
+			long key = key(a, b);
+			int slot = find(key);
+			if(keys[slot] != 0)
+				return;
+			keys[slot] = key;
+			if(count == listA.length)
+			{
+				listA = Arrays.copyOf(listA, 2*count);
+				listB = Arrays.copyOf(listB, 2*count);
+			}
+			listA[count] = a;
+			listB[count] = b;
+			count++;
+		}
+
+		public boolean contains(Body a, Body b) {
+			return keys[find(key(a, b))] != 0;
+		}
+
+		private int find(long key)
+		{
+			int m = keys.length - 1;
+			int slot = (int)(key ^ (key >>> 29)) * 0x9E3779B9 & m;
+			while(keys[slot] != 0 && keys[slot] != key)
+				slot = (slot + 1) & m;
+			return slot;
+		}
+
+		private void grow()
+		{
+			long[] oldKeys = keys;
+			keys = new long[2*oldKeys.length];
+			for(int i = 0; i < oldKeys.length; i++)
+			{
+				if(oldKeys[i] != 0)
+					keys[find(oldKeys[i])] = oldKeys[i];
+			}
+		}
+
+		private static long key(Body a, Body b)
+		{
+			long lo = Math.min(a.getID(), b.getID());
+			long hi = Math.max(a.getID(), b.getID());
+			return (hi << 32 | lo) + 1;
+		}
+	}
+}
\ No newline at end of file
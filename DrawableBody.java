@@ -2,10 +2,7 @@ import net.phys2d.raw.shapes.*;
 import net.phys2d.math.*;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.awt.geom.AffineTransform;
-import javax.imageio.ImageIO;
 import java.io.IOException;
-import java.net.URL;
 import java.util.Scanner;
 
 public abstract class DrawableBody extends net.phys2d.raw.Body
@@ -15,7 +12,10 @@ public abstract class DrawableBody extends net.phys2d.raw.Body
 	protected BufferedImage[][] animArray;
 	protected int[] frameTime; //how long a frame in a strip should last
 	private int boundingBorder;
+	private String imageFile;
 	private double scaledImgWidth, scaledImgHeight; //size of scaled image
+	private SpriteAtlas.Sprite[][] sprites; //animArray, scaled and packed
+	private int spriteWidth, spriteHeight;
 	
 	public DrawableBody(Shape s, float mass, int bb, String fileDir)
 	{
@@ -31,13 +31,23 @@ public abstract class DrawableBody extends net.phys2d.raw.Body
 		boundingBorder = bb;
 	}
 	
-	// Gets the image for this body. Override for animated objects
+	// Gets the image for this body
 	public BufferedImage getImage(int frameCount)
 	{
 		if(animArray == null)
 			return null;
-		else
-			return animArray[0][0];
+		int motion = getMotion();
+		return animArray[motion][getFrame(motion, frameCount)];
+	}
+	
+	// Which animation strip to show. Override for animated objects
+	public int getMotion() {
+		return 0;
+	}
+	
+	// Which frame of the strip to show. Override for animated objects
+	public int getFrame(int motion, int frameCount) {
+		return 0;
 	}
 	
 	/* Precondition: getShape() is not a line
@@ -46,19 +56,54 @@ public abstract class DrawableBody extends net.phys2d.raw.Body
 	 */
 	public void draw(Graphics2D g, int frameCount)
 	{
-		BufferedImage img = getImage(frameCount);
-		if(img == null)
+		SpriteAtlas.Sprite sprite = getSprite(frameCount);
+		if(sprite != null)
+			drawSprite(g, sprite, getPosition().getX(), getPosition().getY(), getRotation());
+	}
+	
+	// The sprite to show on this frame, or null if there is no image
+	public SpriteAtlas.Sprite getSprite(int frameCount)
+	{
+		if(animArray == null)
+			return null;
+		int motion = getMotion();
+		return getSprite(motion, getFrame(motion, frameCount));
+	}
+	
+	// Draws a sprite centred on (x, y), turned by theta
+	public static void drawSprite(Graphics2D g, SpriteAtlas.Sprite sprite,
+		double x, double y, double theta)
+	{
+		double halfImgHeight = sprite.getHeight()/2.0;
+		double halfImgWidth = sprite.getWidth()/2.0;
+		if(theta == 0)
+		{
+			//unrotated sprites are a straight copy out of the atlas
+			sprite.draw(g, (int)Math.round(x-halfImgWidth), (int)Math.round(y-halfImgHeight));
 			return;
-		double x = (double)getPosition().getX();
-		double y = (double)getPosition().getY();
-		double theta = (double)getRotation();
-		double halfImgHeight = scaledImgHeight/2;
-		double halfImgWidth = scaledImgWidth/2;
-		AffineTransform a = new AffineTransform();
-		a.translate(x-halfImgWidth, y-halfImgHeight);
-		a.rotate(theta, halfImgWidth, halfImgHeight);
-		a.scale(scaledImgWidth/img.getWidth(), scaledImgHeight/img.getHeight());
-		g.drawRenderedImage(img, a);
+		}
+		g.translate(x-halfImgWidth, y-halfImgHeight);
+		g.rotate(theta, halfImgWidth, halfImgHeight);
+		sprite.draw(g, 0, 0);
+		g.rotate(-theta, halfImgWidth, halfImgHeight);
+		g.translate(halfImgWidth-x, halfImgHeight-y);
+	}
+	
+	// Frames are packed at the size they are drawn, once per size
+	private SpriteAtlas.Sprite getSprite(int motion, int frame)
+	{
+		int w = Math.max(1, (int)Math.round(scaledImgWidth));
+		int h = Math.max(1, (int)Math.round(scaledImgHeight));
+		if(sprites == null || w != spriteWidth || h != spriteHeight)
+		{
+			sprites = new SpriteAtlas.Sprite[animArray.length][];
+			spriteWidth = w;
+			spriteHeight = h;
+		}
+		if(sprites[motion] == null)
+			sprites[motion] = SpriteAtlas.getShared().getFrames(
+				imageFile + "#" + motion, animArray[motion], w, h);
+		return sprites[motion][frame];
 	}
 	
 	public static java.awt.Polygon convert(ROVector2f[] pts)
@@ -102,8 +147,7 @@ public abstract class DrawableBody extends net.phys2d.raw.Body
 			//retrieves image form of full animation strip
 			BufferedImage fullImageStrip;
 			try {
-				URL currImgURL = getClass().getResource(s.next());
-				fullImageStrip = ImageIO.read(currImgURL);
+				fullImageStrip = AssetCache.getShared().getImage(s.next());
 			}
 			catch(IOException e) {
 				return;
@@ -135,6 +179,8 @@ public abstract class DrawableBody extends net.phys2d.raw.Body
 	
 	public void setImage(String fileDir)
 	{
+		imageFile = fileDir;
+		sprites = null;
 		int nameLen = fileDir.length();
 		String fileType = fileDir.substring(nameLen-3, nameLen).toLowerCase();
 		if(fileType.equals("txt"))
@@ -148,8 +194,7 @@ public abstract class DrawableBody extends net.phys2d.raw.Body
 		{
 			//file is a picture
 			try {
-				URL imgURL = getClass().getResource(fileDir);
-				BufferedImage i = ImageIO.read(imgURL);
+				BufferedImage i = AssetCache.getShared().getImage(fileDir);
 				BufferedImage[] temp = {i};
 				animArray = new BufferedImage[1][];
 				animArray[0] = temp;
@@ -157,6 +202,11 @@ public abstract class DrawableBody extends net.phys2d.raw.Body
 		}
 	}
 	
+	// The image or animation strip file this body was given, if any
+	public String getImageFile() {
+		return imageFile;
+	}
+	
 	public void setShape(Shape s)
 	{
 		super.setShape(s);
@@ -0,0 +1,256 @@
+import java.util.concurrent.atomic.AtomicReference;
+import javax.xml.stream.XMLStreamException;
+import net.phys2d.raw.Body;
+import net.phys2d.raw.BodyList;
+
+/* The game logic of a play session: which level is loaded, resets,
+ * advancing levels, pausing and stepping the world. Input from the
+ * keyboard, pausing included, is queued with queueInput through a
+ * lock-free InputQueue and only takes effect between steps, stamped with
+ * the step it is applied on, so a session can be recorded to an InputLog
+ * and replayed later with exactly the same result. The level after the
+ * current one is built in the background by a LevelLoader. Edits to the
+ * level file (see LevelWatcher) are merged in between steps too, but are
+ * not recorded.
+ */
+public class GameSession
+{
+	private String worldsFile;
+	private int startLevel, currentLevel;
+	private WackoWorld world;
+	private LevelLoader loader;
+	private int worldLevel; //level the current world was built from
+	private int worldChanges;
+	private int tick; //steps taken since the session started
+	private boolean shouldReset;
+	private volatile boolean isPaused;
+	private InputQueue pending;
+	private AtomicReference<LevelEdit> edit; //waiting to be applied
+	private InputLog recording;
+	private boolean trackChecksum;
+	private long checksum;
+
+	public GameSession(String file, int level)
+	{
+		worldsFile = file;
+		startLevel = level;
+		currentLevel = level;
+		pending = new InputQueue();
+		edit = new AtomicReference<LevelEdit>();
+		loader = new LevelLoader();
+		resetWorld();
+	}
+
+	/* Call from one thread only, e.g. the EDT. Returns false if the queue
+	 * was full and the action was dropped.
+	 */
+	public boolean queueInput(byte action) {
+		return pending.offer(action);
+	}
+
+	/* Any thread. An edit that has not been applied yet is merged into
+	 * this one, so no save's changes are lost between two steps.
+	 */
+	public void queueEdit(LevelEdit e)
+	{
+		while(true)
+		{
+			LevelEdit older = edit.get();
+			if(edit.compareAndSet(older, e.mergedWith(older)))
+				return;
+		}
+	}
+
+	/* Applies a queued edit, if any, to the current world. Returns whether
+	 * there was one. An edit to the next level has it built again.
+	 * update() calls this before stepping.
+	 */
+	public synchronized boolean applyEdit()
+	{
+		LevelEdit e = edit.getAndSet(null);
+		if(e == null || !e.getFile().equals(worldsFile))
+			return false;
+		//the watcher read the level played when it saw the save
+		if(e.getLevel() != currentLevel && e.isChanged(currentLevel))
+		{
+			try {
+				e = e.forLevel(currentLevel);
+			}
+			catch(XMLStreamException ex) {
+				System.err.println(worldsFile + ": " + ex.getMessage());
+			}
+		}
+		if(e.getLevel() == currentLevel)
+		{
+			WackoWorld w = e.apply(world);
+			if(w != world)
+			{
+				world = w;
+				worldChanges++;
+			}
+		}
+		if(e.isChanged(currentLevel + 1))
+		{
+			loader.cancel();
+			loader.prefetch(worldsFile, currentLevel + 1);
+		}
+		PerfStats.getShared().levelEdit.recordSince(e.getDetectedNanos());
+		return true;
+	}
+
+	/* Applies queued input, then advances the game by one step unless it
+	 * is paused. While paused only PAUSE and key releases take effect.
+	 */
+	public synchronized void update()
+	{
+		applyEdit();
+		for(int action = pending.poll(); action >= 0; action = pending.poll())
+		{
+			if(action == InputLog.PAUSE)
+				isPaused = !isPaused;
+			else if(!isPaused || action == InputLog.RELEASE_LEFT
+				|| action == InputLog.RELEASE_RIGHT)
+				handle((byte)action);
+		}
+		if(!isPaused)
+			step();
+	}
+	
+	public boolean isPaused() {
+		return isPaused;
+	}
+
+	/* Plays a recorded log from the start of its level as fast as possible
+	 * and returns the trajectory checksum, which matches the recording's
+	 * if the physics behaved exactly the same.
+	 */
+	public long replay(InputLog log)
+	{
+		trackChecksum = true;
+		int next = 0;
+		while(tick < log.getLength())
+		{
+			while(next < log.size() && log.getTick(next) <= tick)
+				handle(log.getAction(next++));
+			step();
+		}
+		return checksum;
+	}
+
+	public void startRecording()
+	{
+		recording = new InputLog();
+		recording.setStart(worldsFile, currentLevel);
+		startLevel = currentLevel;
+		tick = 0;
+		checksum = 0;
+		trackChecksum = true;
+		resetWorld();
+	}
+
+	// Returns the log recorded so far, or null if not recording
+	public synchronized InputLog getRecording()
+	{
+		if(recording != null)
+			recording.setEnd(tick, checksum);
+		return recording;
+	}
+
+	private void handle(byte action)
+	{
+		if(recording != null)
+			recording.add(tick, action);
+		if(action == InputLog.RESET)
+			shouldReset = true;
+		else if(action == InputLog.NEXT_LEVEL)
+			advanceLevel();
+		else
+			InputLog.apply(world.getBob(), action);
+	}
+
+	private void step()
+	{
+		//a checkpoint saves bob from a full reset
+		if((world.isBobOutOfBounds() || world.isBobHurt()) && !world.respawnBob())
+			shouldReset = true;
+		if(world.isComplete())
+			advanceLevel();
+		if(shouldReset)
+		{
+			shouldReset = false;
+			resetWorld();
+		}
+		world.step();
+		tick++;
+		if(trackChecksum)
+			updateChecksum();
+	}
+
+	private void updateChecksum()
+	{
+		BodyList bodies = world.getBodies();
+		for(int i = 0; i < bodies.size(); i++)
+		{
+			Body b = bodies.get(i);
+			checksum = 31*checksum + Float.floatToIntBits(b.getPosition().getX());
+			checksum = 31*checksum + Float.floatToIntBits(b.getPosition().getY());
+			checksum = 31*checksum + Float.floatToIntBits(b.getRotation());
+		}
+	}
+
+	// Resets restore the level's saved state; only new levels are parsed
+	private void resetWorld()
+	{
+		if(world == null || worldLevel != currentLevel || !world.reset())
+		{
+			world = LevelLoader.build(worldsFile, currentLevel);
+			loader.prefetch(worldsFile, currentLevel + 1);
+		}
+		worldLevel = currentLevel;
+		worldChanges++;
+	}
+
+	// Swaps in the prefetched world and starts building the one after it
+	private void advanceLevel()
+	{
+		currentLevel++;
+		WackoWorld w = loader.take(worldsFile, currentLevel);
+		if(w == null)
+		{
+			currentLevel = 0;
+			resetWorld();
+		}
+		else
+		{
+			world = w;
+			worldLevel = currentLevel;
+			worldChanges++;
+			loader.prefetch(worldsFile, currentLevel + 1);
+		}
+	}
+
+	public WackoWorld getWorld() {
+		return world;
+	}
+
+	public String getWorldsFile() {
+		return worldsFile;
+	}
+
+	// Goes up whenever the world is reset or replaced
+	public int getWorldChanges() {
+		return worldChanges;
+	}
+	
+	public int getCurrentLevel() {
+		return currentLevel;
+	}
+
+	public int getTick() {
+		return tick;
+	}
+
+	public long getChecksum() {
+		return checksum;
+	}
+}
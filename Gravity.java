@@ -1,22 +1,51 @@
 import net.phys2d.math.Vector2f;
+import net.phys2d.raw.Body;
+import net.phys2d.raw.BodyList;
 
 // Source: Windsource.java by Kevin
 
+/* A world's gravity. WackoWorld applies it to all of its awake bodies in
+ * one pass per step with apply(BodyList, float); the same scratch vector
+ * is reused for every body so stepping makes no garbage.
+ */
 public class Gravity implements net.phys2d.raw.forcesource.ForceSource
 {
-	private static Vector2f force = new Vector2f();
+	private float forceX, forceY;
+	private Vector2f stepVelocity = new Vector2f();
 	
 	public Gravity(float x, float y) {
-		force.set(x, y);
+		set(x, y);
 	}
 	
 	public Gravity(Vector2f v) {
-		force = v;
+		set(v.getX(), v.getY());
 	}
 	
-	public void apply(net.phys2d.raw.Body body, float dt) {
-		Vector2f temp = new Vector2f(force);
-		temp.scale(dt);
-		body.adjustVelocity(temp);
+	public void set(float x, float y)
+	{
+		forceX = x;
+		forceY = y;
+	}
+	
+	public float getX() {
+		return forceX;
+	}
+	
+	public float getY() {
+		return forceY;
+	}
+	
+	public void apply(Body body, float dt) {
+		stepVelocity.set(forceX*dt, forceY*dt);
+		body.adjustVelocity(stepVelocity);
+	}
+	
+	public void apply(BodyList bodies, float dt)
+	{
+		if(forceX == 0 && forceY == 0)
+			return;
+		stepVelocity.set(forceX*dt, forceY*dt);
+		for(int i = 0, n = bodies.size(); i < n; i++)
+			bodies.get(i).adjustVelocity(stepVelocity);
 	}
 }
\ No newline at end of file
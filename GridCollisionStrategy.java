@@ -0,0 +1,130 @@
+import net.phys2d.raw.*;
+import net.phys2d.raw.shapes.AABox;
+
+/* Uniform grid broadphase sized from the world's width and height. Each
+ * step every body is bucketed into the cells its bounding box covers, and
+ * only bodies that share a cell are handed to the world as candidate pairs,
+ * so a level full of static boxes costs about the same per body as a small
+ * one. Bodies outside the world are clamped into the edge cells.
+ */
+public class GridCollisionStrategy implements BroadCollisionStrategy
+{
+	public static final int DEFAULT_CELL_SIZE = 100;
+
+	private UniformGrid grid; //body indices
+	private float[] minX, minY, maxX, maxY; //bounds of each body this step
+	private BodyList pair;
+
+	public GridCollisionStrategy(int worldWidth, int worldHeight)
+	{
+		this(worldWidth, worldHeight, DEFAULT_CELL_SIZE);
+	}
+
+	public GridCollisionStrategy(int worldWidth, int worldHeight, int cellSize)
+	{
+		grid = new UniformGrid(worldWidth, worldHeight, cellSize);
+		ensureCapacity(0);
+		pair = new BodyList();
+	}
+
+	public void collideBodies(CollisionContext context, BodyList bodies, float dt)
+	{
+		int n = bodies.size();
+		ensureCapacity(n);
+		grid.clear();
+
+		for(int i = 0; i < n; i++)
+		{
+			Body b = bodies.get(i);
+			AABox bounds = b.getShape().getBounds();
+			float cx = b.getPosition().getX() + bounds.getOffsetX();
+			float cy = b.getPosition().getY() + bounds.getOffsetY();
+			minX[i] = cx - bounds.getWidth()/2;
+			maxX[i] = cx + bounds.getWidth()/2;
+			minY[i] = cy - bounds.getHeight()/2;
+			maxY[i] = cy + bounds.getHeight()/2;
+			grid.insert(i, minX[i], minY[i], maxX[i], maxY[i]);
+		}
+
+		//static bodies never look for partners; the moving body finds them
+		for(int i = 0; i < n; i++)
+		{
+			Body b = bodies.get(i);
+			if(b.isStatic())
+				continue;
+			grid.startQuery(n);
+			int c0 = grid.column(minX[i]), c1 = grid.column(maxX[i]);
+			int r0 = grid.row(minY[i]), r1 = grid.row(maxY[i]);
+			for(int r = r0; r <= r1; r++)
+			{
+				for(int c = c0; c <= c1; c++)
+				{
+					int cell = grid.cell(c, r);
+					int[] members = grid.getMembers(cell);
+					for(int k = 0; k < grid.getCount(cell); k++)
+					{
+						int j = members[k];
+						if(j == i || !grid.visit(j))
+							continue;
+						Body other = bodies.get(j);
+						//a moving pair is tested once, by its lower index
+						if(j < i && !other.isStatic())
+							continue;
+						if(!overlaps(i, j))
+							continue;
+						if(i < j)
+							resolvePair(context, b, other, dt);
+						else
+							resolvePair(context, other, b, dt);
+					}
+				}
+			}
+		}
+
+		//pairs that jumped apart never shared a cell this step, so drop
+		//their contacts the same way the brute force strategy would
+		if(context instanceof World)
+		{
+			ArbiterList arbiters = ((World)context).getArbiters();
+			for(int k = arbiters.size() - 1; k >= 0; k--)
+			{
+				Arbiter a = arbiters.get(k);
+				if(!touches(a.getBody1(), a.getBody2()))
+					resolvePair(context, a.getBody1(), a.getBody2(), dt);
+			}
+		}
+	}
+
+	private void resolvePair(CollisionContext context, Body a, Body b, float dt)
+	{
+		pair.clear();
+		pair.add(a);
+		pair.add(b);
+		context.resolve(pair, dt);
+	}
+
+	private boolean overlaps(int i, int j)
+	{
+		return minX[i] < maxX[j] && minX[j] < maxX[i]
+			&& minY[i] < maxY[j] && minY[j] < maxY[i];
+	}
+
+	private static boolean touches(Body a, Body b)
+	{
+		return a.getShape().getBounds().touches(
+			a.getPosition().getX(), a.getPosition().getY(),
+			b.getShape().getBounds(),
+			b.getPosition().getX(), b.getPosition().getY());
+	}
+
+	private void ensureCapacity(int n)
+	{
+		if(minX != null && minX.length >= n)
+			return;
+		int size = Math.max(16, 2*n);
+		minX = new float[size];
+		minY = new float[size];
+		maxX = new float[size];
+		maxY = new float[size];
+	}
+}
\ No newline at end of file
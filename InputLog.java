@@ -0,0 +1,237 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Scanner;
+
+/* A list of player inputs stamped with the simulation step they happen on.
+ * Scripts are text resources of "<step> <action>" pairs ending with $$, e.g.
+ *     0 right
+ *     30 jump
+ *     400 -right
+ * The log itself is never changed by replaying it, so one log can drive
+ * any number of worlds at once.
+ *
+ * Recorded logs are saved in a compact binary form: a header naming the
+ * level file, starting level, length in steps and trajectory checksum,
+ * then each event as a variable length step delta and an action byte.
+ */
+public class InputLog
+{
+	public static final byte PRESS_LEFT = 0;
+	public static final byte RELEASE_LEFT = 1;
+	public static final byte PRESS_RIGHT = 2;
+	public static final byte RELEASE_RIGHT = 3;
+	public static final byte JUMP = 4;
+	public static final byte DANCE = 5;
+	public static final byte FLOAT = 6;
+	public static final byte RESET = 7;
+	public static final byte NEXT_LEVEL = 8;
+	public static final byte PAUSE = 9; //toggles; never recorded
+	
+	private static final int MAGIC = 0x4d524c31; //"MRL1"
+	
+	private static final String TERMIN_SYMBOL = "$$";
+	private static final String[] ACTION_NAMES =
+		{"left", "-left", "right", "-right", "jump", "dance", "float",
+		"reset", "next", "pause"};
+	
+	private int[] ticks;
+	private byte[] actions;
+	private int size;
+	private String levelFile;
+	private int startLevel, length;
+	private long checksum;
+	
+	public InputLog()
+	{
+		ticks = new int[64];
+		actions = new byte[64];
+	}
+	
+	// Events must be added in step order
+	public void add(int tick, byte action)
+	{
+		if(size == ticks.length)
+		{
+			ticks = Arrays.copyOf(ticks, 2*size);
+			actions = Arrays.copyOf(actions, 2*size);
+		}
+		ticks[size] = tick;
+		actions[size] = action;
+		size++;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public void clear() {
+		size = 0;
+	}
+	
+	public void setStart(String file, int level)
+	{
+		levelFile = file;
+		startLevel = level;
+	}
+	
+	public void setEnd(int steps, long sum)
+	{
+		length = steps;
+		checksum = sum;
+	}
+	
+	public String getLevelFile() {
+		return levelFile;
+	}
+	
+	public int getStartLevel() {
+		return startLevel;
+	}
+	
+	// How many steps the recording ran for
+	public int getLength() {
+		return length;
+	}
+	
+	public long getChecksum() {
+		return checksum;
+	}
+	
+	public int getTick(int i) {
+		return ticks[i];
+	}
+	
+	public byte getAction(int i) {
+		return actions[i];
+	}
+	
+	/* Applies every event stamped with the given step, starting at index
+	 * next, and returns the index of the first event not yet applied.
+	 */
+	public int apply(CharBody bob, int tick, int next)
+	{
+		while(next < size && ticks[next] <= tick)
+		{
+			apply(bob, actions[next]);
+			next++;
+		}
+		return next;
+	}
+	
+	public static void apply(CharBody bob, byte action)
+	{
+		switch(action)
+		{
+			case PRESS_LEFT:
+				bob.setLeftPressed(true);
+				break;
+			case RELEASE_LEFT:
+				bob.setLeftPressed(false);
+				break;
+			case PRESS_RIGHT:
+				bob.setRightPressed(true);
+				break;
+			case RELEASE_RIGHT:
+				bob.setRightPressed(false);
+				break;
+			case JUMP:
+				bob.jump();
+				break;
+			case DANCE:
+				bob.switchDancing();
+				break;
+			case FLOAT:
+				bob.setGravityEffected(!bob.getGravityEffected());
+				break;
+		}
+	}
+	
+	public void write(OutputStream os) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(os);
+		out.writeInt(MAGIC);
+		out.writeUTF(levelFile);
+		out.writeInt(startLevel);
+		out.writeInt(length);
+		out.writeLong(checksum);
+		out.writeInt(size);
+		int lastTick = 0;
+		for(int i = 0; i < size; i++)
+		{
+			writeVarInt(out, ticks[i] - lastTick);
+			out.writeByte(actions[i]);
+			lastTick = ticks[i];
+		}
+		out.flush();
+	}
+	
+	public static InputLog read(InputStream is) throws IOException
+	{
+		DataInputStream in = new DataInputStream(is);
+		if(in.readInt() != MAGIC)
+			throw new IOException("Not an input log");
+		InputLog log = new InputLog();
+		log.setStart(in.readUTF(), in.readInt());
+		int steps = in.readInt();
+		log.setEnd(steps, in.readLong());
+		int n = in.readInt();
+		int tick = 0;
+		for(int i = 0; i < n; i++)
+		{
+			tick += readVarInt(in);
+			log.add(tick, in.readByte());
+		}
+		return log;
+	}
+	
+	private static void writeVarInt(DataOutputStream out, int v) throws IOException
+	{
+		while((v & ~0x7f) != 0)
+		{
+			out.writeByte((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+	
+	private static int readVarInt(DataInputStream in) throws IOException
+	{
+		int v = 0;
+		for(int shift = 0; ; shift += 7)
+		{
+			int b = in.readUnsignedByte();
+			v |= (b & 0x7f) << shift;
+			if((b & 0x80) == 0)
+				return v;
+		}
+	}
+	
+	// Returns null if the script resource does not exist
+	public static InputLog loadScript(String fileName)
+	{
+		InputStream in = InputLog.class.getResourceAsStream(fileName);
+		if(in == null)
+			return null;
+		InputLog log = new InputLog();
+		Scanner s = new Scanner(in);
+		while(s.hasNext())
+		{
+			String currItem = s.next();
+			if(currItem.equals(TERMIN_SYMBOL))
+				break;
+			int tick = Integer.parseInt(currItem);
+			String name = s.next();
+			for(byte a = 0; a < ACTION_NAMES.length; a++)
+			{
+				if(ACTION_NAMES[a].equals(name))
+					log.add(tick, a);
+			}
+		}
+		s.close();
+		return log;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,65 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/* A bounded ring of input actions passed from one thread that adds them,
+ * normally the EDT, to one thread that takes them, the game loop, without
+ * locks. Each side only writes its own counter, and publishes it with an
+ * ordered store after touching the slot, so the other side never sees a
+ * half-written action. When the ring is full new actions are dropped.
+ */
+public class InputQueue
+{
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private final byte[] actions;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong(); //next to take
+	private final AtomicLong tail = new AtomicLong(); //next to add
+	private long cachedHead; //producer's last look at head
+
+	public InputQueue()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	// capacity is rounded up to a power of two
+	public InputQueue(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		actions = new byte[size];
+		mask = size - 1;
+	}
+
+	// Producer only. Returns false if the action was dropped
+	public boolean offer(byte action)
+	{
+		long t = tail.get();
+		if(t - cachedHead == actions.length)
+		{
+			cachedHead = head.get();
+			if(t - cachedHead == actions.length)
+				return false;
+		}
+		actions[(int)t & mask] = action;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	// Consumer only. Returns -1 if there is nothing to take
+	public int poll()
+	{
+		long h = head.get();
+		if(h == tail.get())
+			return -1;
+		byte action = actions[(int)h & mask];
+		head.lazySet(h + 1);
+		return action;
+	}
+
+	public boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+
+	public int getCapacity() {
+		return actions.length;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,303 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import net.phys2d.raw.*;
+import net.phys2d.raw.shapes.*;
+import net.phys2d.math.ROVector2f;
+
+/* Compiles a level file into the binary form WorldBuilder maps straight
+ * into memory. XML stays the format levels are written in.
+ *
+ * Layout (big-endian):
+ *   int MAGIC, int VERSION
+ *   asset table: int count, then per asset a short length and UTF-8 bytes
+ *   level table: int count, then the file offset of each level
+ *   per level:
+ *     int width, height, iterations
+ *     float gravityX, gravityY, antigravityX, antigravityY
+ *     int background asset, byte broadphase, int chunk size
+ *     int layer count, then per layer int image asset, float scroll
+ *     factor, byte tiled
+ *     int goal count, int[count*5] x, y, width, height, image asset
+ *     int trigger count, then per trigger byte type, byte round, int x,
+ *     y, width, height, image asset, float gravityX, gravityY
+ *     int body count n, byte[n] body type, byte[n] shape type,
+ *     byte[n] flags, int[n] image asset, float[n*6] mass, x, y,
+ *     rotation, friction, restitution, int[n] shape parameter count,
+ *     then every body's shape parameters as one float array
+ * Asset indices are -1 for none.
+ *
+ * Usage: java LevelCompiler rsrc/level.xml level.lvl
+ */
+public class LevelCompiler
+{
+	public static final String EXTENSION = ".lvl";
+	public static final int MAGIC = 0x4d524c42; //"MRLB"
+	public static final int VERSION = 4;
+
+	public static final byte DEFAULT_BODY = 0;
+	public static final byte STATIC_BODY = 1;
+	public static final byte CHAR_BODY = 2;
+
+	public static final byte BOX = 0;
+	public static final byte CIRCLE = 1;
+	public static final byte LINE = 2;
+	public static final byte POLYGON = 3;
+
+	public static final int GRAVITY_EFFECTED = 1;
+	public static final int ROTATABLE = 2;
+	public static final int MOVEABLE = 4;
+	public static final int BLOCKS_INNER_EDGE = 8;
+	public static final int BLOCKS_OUTER_EDGE = 16;
+
+	public static final String[] BROADPHASES = {"auto", "brute", "quad", "grid"};
+	public static final int BODY_FLOATS = 6;
+
+	private ArrayList<String> assets;
+	private HashMap<String, Integer> assetIndex;
+
+	public static void main(String[] args) throws IOException
+	{
+		System.setProperty("java.awt.headless", "true");
+		if(args.length != 2)
+		{
+			System.out.println("Usage: java LevelCompiler levelFile.xml out" + EXTENSION);
+			return;
+		}
+		int levels = new LevelCompiler().compile(args[0], args[1]);
+		System.out.println("Compiled " + levels + " levels to " + args[1]);
+	}
+
+	public LevelCompiler()
+	{
+		assets = new ArrayList<String>();
+		assetIndex = new HashMap<String, Integer>();
+	}
+
+	// Returns the number of levels written
+	public int compile(String xmlFile, String outFile) throws IOException
+	{
+		int count = WorldBuilder.getLevelCount(xmlFile);
+		byte[][] levels = new byte[count][];
+		for(int i = 0; i < count; i++)
+			levels[i] = compileLevel(WorldBuilder.buildWorld(xmlFile, i, false));
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(header);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(assets.size());
+		for(String asset : assets)
+		{
+			byte[] name = asset.getBytes("UTF-8");
+			out.writeShort(name.length);
+			out.write(name);
+		}
+		out.writeInt(count);
+		int offset = header.size() + 4*count;
+		for(int i = 0; i < count; i++)
+		{
+			out.writeInt(offset);
+			offset += levels[i].length;
+		}
+		out.flush();
+
+		FileOutputStream file = new FileOutputStream(outFile);
+		header.writeTo(file);
+		for(int i = 0; i < count; i++)
+			file.write(levels[i]);
+		file.close();
+		return count;
+	}
+
+	private byte[] compileLevel(WackoWorld w) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(w.getWidth());
+		out.writeInt(w.getHeight());
+		out.writeInt(w.getIterations());
+		out.writeFloat(w.getCurrentGravity().getX());
+		out.writeFloat(w.getCurrentGravity().getY());
+		out.writeFloat(w.getAntigravityX());
+		out.writeFloat(w.getAntigravityY());
+		out.writeInt(asset(w.getBackgroundFile()));
+		out.writeByte(broadphaseCode(w.getBroadphase()));
+		out.writeInt(w.getChunkSize());
+
+		ArrayList<ParallaxLayer> layers = w.getLayers();
+		out.writeInt(layers.size());
+		for(ParallaxLayer layer : layers)
+		{
+			out.writeInt(asset(layer.getImageFile()));
+			out.writeFloat(layer.getScrollFactor());
+			out.writeByte(layer.isTiled() ? 1 : 0);
+		}
+
+		ArrayList<Goal> goals = w.getGoals();
+		out.writeInt(goals.size());
+		for(Goal g : goals)
+		{
+			out.writeInt(g.getX());
+			out.writeInt(g.getY());
+			out.writeInt(g.getWidth());
+			out.writeInt(g.getHeight());
+			out.writeInt(asset(g.getImageFile()));
+		}
+
+		//goals were written above, in their order
+		ArrayList<TriggerZone> triggers = new ArrayList<TriggerZone>();
+		for(TriggerZone zone : w.getTriggers())
+		{
+			if(!(zone instanceof Goal))
+				triggers.add(zone);
+		}
+		out.writeInt(triggers.size());
+		for(TriggerZone zone : triggers)
+		{
+			out.writeByte(zone.getType());
+			out.writeByte(zone.isRound() ? 1 : 0);
+			out.writeInt(zone.getX());
+			out.writeInt(zone.getY());
+			out.writeInt(zone.getWidth());
+			out.writeInt(zone.getHeight());
+			out.writeInt(asset(zone.getImageFile()));
+			out.writeFloat(zone.getGravityX());
+			out.writeFloat(zone.getGravityY());
+		}
+
+		BodyList bodies = w.getBodies();
+		int n = bodies.size();
+		out.writeInt(n);
+		for(int i = 0; i < n; i++)
+		{
+			Body b = bodies.get(i);
+			if(b instanceof CharBody)
+				out.writeByte(CHAR_BODY);
+			else if(b.isStatic())
+				out.writeByte(STATIC_BODY);
+			else
+				out.writeByte(DEFAULT_BODY);
+		}
+		for(int i = 0; i < n; i++)
+			out.writeByte(shapeCode(bodies.get(i).getShape()));
+		for(int i = 0; i < n; i++)
+			out.writeByte(flags(bodies.get(i)));
+		for(int i = 0; i < n; i++)
+		{
+			Body b = bodies.get(i);
+			if(b instanceof DrawableBody)
+				out.writeInt(asset(((DrawableBody)b).getImageFile()));
+			else
+				out.writeInt(-1);
+		}
+		for(int i = 0; i < n; i++)
+		{
+			Body b = bodies.get(i);
+			out.writeFloat(b.getMass());
+			out.writeFloat(b.getPosition().getX());
+			out.writeFloat(b.getPosition().getY());
+			out.writeFloat(b.getRotation());
+			out.writeFloat(b.getFriction());
+			out.writeFloat(b.getRestitution());
+		}
+		ArrayList<float[]> shapeParams = new ArrayList<float[]>();
+		for(int i = 0; i < n; i++)
+		{
+			float[] params = shapeParams(bodies.get(i).getShape());
+			shapeParams.add(params);
+			out.writeInt(params.length);
+		}
+		for(float[] params : shapeParams)
+			for(int i = 0; i < params.length; i++)
+				out.writeFloat(params[i]);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private int asset(String name)
+	{
+		if(name == null || name.length() == 0)
+			return -1;
+		Integer index = assetIndex.get(name);
+		if(index == null)
+		{
+			index = assets.size();
+			assets.add(name);
+			assetIndex.put(name, index);
+		}
+		return index;
+	}
+
+	private static int broadphaseCode(String type)
+	{
+		for(int i = 0; i < BROADPHASES.length; i++)
+		{
+			if(BROADPHASES[i].equals(type))
+				return i;
+		}
+		return 0;
+	}
+
+	static int shapeCode(Shape s)
+	{
+		if(s instanceof Box)
+			return BOX;
+		else if(s instanceof Circle)
+			return CIRCLE;
+		else if(s instanceof Line)
+			return LINE;
+		else
+			return POLYGON;
+	}
+
+	static int flags(Body b)
+	{
+		int flags = 0;
+		if(b.getGravityEffected())
+			flags |= GRAVITY_EFFECTED;
+		if(b.isRotatable())
+			flags |= ROTATABLE;
+		if(b.isMoveable())
+			flags |= MOVEABLE;
+		if(b.getShape() instanceof Line)
+		{
+			Line line = (Line)b.getShape();
+			if(line.blocksInnerEdge())
+				flags |= BLOCKS_INNER_EDGE;
+			if(line.blocksOuterEdge())
+				flags |= BLOCKS_OUTER_EDGE;
+		}
+		return flags;
+	}
+
+	static float[] shapeParams(Shape s)
+	{
+		if(s instanceof Box)
+		{
+			ROVector2f size = ((Box)s).getSize();
+			return new float[] {size.getX(), size.getY()};
+		}
+		else if(s instanceof Circle)
+			return new float[] {((Circle)s).getRadius()};
+		else if(s instanceof Line)
+		{
+			Line line = (Line)s;
+			return new float[] {line.getX1(), line.getY1(), line.getX2(), line.getY2()};
+		}
+		else
+		{
+			ROVector2f[] verts = ((Polygon)s).getVertices();
+			float[] params = new float[2*verts.length];
+			for(int i = 0; i < verts.length; i++)
+			{
+				params[2*i] = verts[i].getX();
+				params[2*i+1] = verts[i].getY();
+			}
+			return params;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,269 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import javax.xml.stream.XMLStreamException;
+import net.phys2d.raw.Body;
+
+/* A level as saved again in its level file, to be merged into the world
+ * being played from it without starting the level over. Bodies are matched
+ * by the <body> elements they were built from: those the edit left alone
+ * keep moving as they were, and only elements that are new or changed are
+ * built, reusing a body of the same kind that went away where there is
+ * one. Bob carries on as he was. Zones and world settings come from the
+ * edit, and reset() goes back to the edited level from then on. Apply it
+ * on the thread that steps the world, between steps.
+ */
+public class LevelEdit
+{
+	private String file;
+	private int level;
+	private WorldBuilder.WorldSource source; //null if this level did not change
+	private boolean[] changedLevels;
+	private long detected; //System.nanoTime() when the save was seen
+	private int added, removed, changed;
+
+	/* source is level l's <world> as saved, or null if it did not change;
+	 * changed says which of the file's levels did.
+	 */
+	LevelEdit(String f, int l, WorldBuilder.WorldSource s, boolean[] changed,
+		long detectedNanos)
+	{
+		file = f;
+		level = l;
+		source = s;
+		changedLevels = changed;
+		detected = detectedNanos;
+	}
+
+	public String getFile() {
+		return file;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	// Whether the save changed the given level of the file
+	public boolean isChanged(int l) {
+		return l >= 0 && l < changedLevels.length && changedLevels[l];
+	}
+
+	public long getDetectedNanos() {
+		return detected;
+	}
+
+	/* The same save as an edit to level l, e.g. when the level played
+	 * moved on while the save was read. l's source is read from the
+	 * level cache, which the save has already refreshed.
+	 */
+	LevelEdit forLevel(int l) throws XMLStreamException
+	{
+		WorldBuilder.WorldSource s = null;
+		if(isChanged(l) && !file.endsWith(LevelCompiler.EXTENSION))
+			s = WorldBuilder.getWorldSource(file, l);
+		return new LevelEdit(file, l, s, changedLevels, detected);
+	}
+
+	/* This edit with an older one of the same file that was never applied:
+	 * the levels either changed, this edit's source, or the older one's
+	 * when this did not change the same level, and the older save's time.
+	 */
+	LevelEdit mergedWith(LevelEdit older)
+	{
+		if(older == null || !older.file.equals(file))
+			return this;
+		boolean[] changed = new boolean[Math.max(changedLevels.length,
+			older.changedLevels.length)];
+		for(int i = 0; i < changed.length; i++)
+			changed[i] = isChanged(i) || older.isChanged(i);
+		WorldBuilder.WorldSource s = source;
+		if(s == null && older.level == level)
+			s = older.source;
+		return new LevelEdit(file, level, s, changed, older.detected);
+	}
+
+	/* Merges the edit into live and returns the world to play from now on:
+	 * live itself, or the whole level built again with bob moved into it
+	 * when live cannot be patched in place (a streamed level, or a
+	 * different number of iterations or chunk size).
+	 */
+	public WackoWorld apply(WackoWorld live)
+	{
+		if(source == null)
+			return live;
+		LevelSnapshot was = live.getInitialState();
+		if(live.getChunks() != null || !was.hasSources())
+			return replace(live);
+		int reached = live.getGoalsReached();
+		//live bodies by the element they were built from
+		HashMap<String, ArrayList<Integer>> bySource = new HashMap<String, ArrayList<Integer>>();
+		for(int i = 0; i < was.getBodyCount(); i++)
+		{
+			ArrayList<Integer> same = bySource.get(was.getSource(i));
+			if(same == null)
+			{
+				same = new ArrayList<Integer>();
+				bySource.put(was.getSource(i), same);
+			}
+			same.add(i);
+		}
+		ArrayList<String> sources = source.getBodySources();
+		int[] from = new int[sources.size()];
+		boolean[] fresh = new boolean[sources.size()];
+		boolean[] kept = new boolean[was.getBodyCount()];
+		int freshCount = 0;
+		for(int j = 0; j < from.length; j++)
+		{
+			ArrayList<Integer> same = bySource.get(sources.get(j));
+			if(same != null && same.size() > 0)
+			{
+				from[j] = same.remove(0);
+				kept[from[j]] = true;
+			}
+			else
+			{
+				fresh[j] = true;
+				freshCount++;
+			}
+		}
+		//the world with only the new and changed bodies in it
+		WackoWorld edited;
+		synchronized(LevelLoader.class)
+		{
+			edited = WorldBuilder.build(source.getEvents(fresh), false);
+		}
+		if(edited == null)
+			return live;
+		LevelSnapshot built = edited.getInitialState();
+		if(built.getBodyCount() != freshCount || live.getChunkSize() != edited.getChunkSize()
+			|| live.getIterations() != edited.getIterations())
+			return replace(live);
+
+		LevelSnapshot now = new LevelSnapshot(from.length, built);
+		ArrayList<Body> gone = new ArrayList<Body>();
+		boolean bobKept = false;
+		for(int i = 0; i < kept.length; i++)
+		{
+			if(kept[i])
+				bobKept |= was.getBody(i) == live.getBob();
+			else if(was.getBody(i) != live.getBob())
+				gone.add(was.getBody(i));
+		}
+		int next = 0;
+		for(int j = 0; j < from.length; j++)
+		{
+			if(!fresh[j])
+			{
+				now.copyBody(j, was, from[j]);
+				continue;
+			}
+			now.copyBody(j, built, next++);
+			Body b = now.getBody(j);
+			//bob's new definition takes effect when the level is reset
+			if(b instanceof CharBody && !bobKept)
+			{
+				now.replaceBody(j, live.getBob());
+				bobKept = true;
+				continue;
+			}
+			//a changed definition reuses a body of the same kind that went away
+			Body reused = null;
+			for(int i = 0; i < gone.size() && reused == null; i++)
+			{
+				if(gone.get(i).getClass() == b.getClass())
+					reused = gone.remove(i);
+			}
+			if(reused != null)
+			{
+				b = reused;
+				changed++;
+			}
+			else
+			{
+				edited.remove(b);
+				live.add(b);
+				added++;
+			}
+			now.restoreBody(j, b, live);
+			now.replaceBody(j, b);
+		}
+		for(Body b : gone)
+		{
+			live.clearArbiters(b);
+			live.remove(b);
+			removed++;
+		}
+		now.setSources(sources);
+
+		boolean resized = live.getWidth() != edited.getWidth()
+			|| live.getHeight() != edited.getHeight();
+		if(live.getWidth() != edited.getWidth())
+			live.setWidth(edited.getWidth());
+		if(live.getHeight() != edited.getHeight())
+			live.setHeight(edited.getHeight());
+		if(!live.getBackgroundFile().equals(edited.getBackgroundFile()))
+			live.setBackground(edited.getBackgroundFile());
+		if(!sameLayers(live.getLayers(), edited.getLayers()))
+			live.setLayers(edited.getLayers());
+		live.setAntigravity(edited.getAntigravityX(), edited.getAntigravityY());
+		//gravity switched by a zone stays switched unless the level's changed
+		if(was.getGravityX() != now.getGravityX() || was.getGravityY() != now.getGravityY())
+			live.setGravity(now.getGravityX(), now.getGravityY());
+		live.replaceTriggers(edited.getTriggers(), reached, live.getCheckpoint());
+		live.setInitialState(now);
+		if(added > 0 || removed > 0 || resized
+			|| !live.getBroadphase().equals(edited.getBroadphase()))
+			live.setBroadphase(edited.getBroadphase());
+		live.markEdited();
+		return live;
+	}
+
+	private static boolean sameLayers(ArrayList<ParallaxLayer> a, ArrayList<ParallaxLayer> b)
+	{
+		if(a.size() != b.size())
+			return false;
+		for(int i = 0; i < a.size(); i++)
+		{
+			ParallaxLayer x = a.get(i), y = b.get(i);
+			if(!x.getImageFile().equals(y.getImageFile()) || x.isTiled() != y.isTiled()
+				|| x.getScrollFactor() != y.getScrollFactor())
+				return false;
+		}
+		return true;
+	}
+
+	// Builds the whole level again and moves bob and the goals reached into it
+	private WackoWorld replace(WackoWorld live)
+	{
+		WackoWorld edited;
+		synchronized(LevelLoader.class)
+		{
+			edited = WorldBuilder.build(source, true);
+		}
+		if(edited == null)
+			return live;
+		int reached = live.getGoalsReached();
+		CharBody bob = live.getBob(), old = edited.getBob();
+		LevelSnapshot now = edited.getInitialState();
+		for(int j = 0; j < now.getBodyCount(); j++)
+		{
+			if(now.getBody(j) == old)
+				now.replaceBody(j, bob);
+		}
+		edited.remove(old);
+		live.clearArbiters(bob);
+		//adding clears the flag, which would stop a floating bob floating
+		boolean floating = bob.getGravityEffected();
+		edited.add(bob);
+		bob.setGravityEffected(floating);
+		edited.replaceTriggers(new ArrayList<TriggerZone>(edited.getTriggers()), reached,
+			live.getCheckpoint());
+		changed = edited.getBodies().size();
+		return edited;
+	}
+
+	public String toString()
+	{
+		return file + " level " + level + ": " + added + " added, "
+			+ removed + " removed, " + changed + " changed";
+	}
+}
\ No newline at end of file
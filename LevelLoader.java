@@ -0,0 +1,88 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/* Builds the next level on a background thread while the current one is
+ * being played, so a level transition only has to swap worlds. All
+ * loaders share one low-priority daemon thread.
+ */
+public class LevelLoader
+{
+	private static final ExecutorService executor =
+		Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "level loader");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+
+	private String nextFile;
+	private int nextLevel;
+	private Future<WackoWorld> next;
+
+	/* Building is serialized: phys2d hands out body IDs from an unsynchronized
+	 * static counter, and two bodies sharing an ID would be treated as one.
+	 */
+	public static synchronized WackoWorld build(String file, int level)
+	{
+		return WorldBuilder.buildWorld(file, level);
+	}
+
+	// Starts building a level in the background, replacing any earlier request
+	public synchronized void prefetch(final String file, final int level)
+	{
+		if(next != null && level == nextLevel && file.equals(nextFile))
+			return;
+		cancel();
+		nextFile = file;
+		nextLevel = level;
+		next = executor.submit(new Callable<WackoWorld>() {
+			public WackoWorld call() {
+				return build(file, level);
+			}
+		});
+	}
+
+	/* Returns the prefetched world if it is the one asked for, waiting for
+	 * it to finish if need be. Anything else is built right away.
+	 */
+	public synchronized WackoWorld take(String file, int level)
+	{
+		Future<WackoWorld> f = next;
+		boolean match = f != null && level == nextLevel && file.equals(nextFile);
+		if(!match)
+		{
+			cancel();
+			return build(file, level);
+		}
+		next = null;
+		try {
+			return f.get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch(ExecutionException e) {
+			e.getCause().printStackTrace();
+		}
+		return build(file, level);
+	}
+
+	// Whether the requested level has finished building
+	public synchronized boolean isReady(String file, int level) {
+		return next != null && level == nextLevel && file.equals(nextFile) && next.isDone();
+	}
+
+	public synchronized void cancel()
+	{
+		if(next != null)
+			next.cancel(false);
+		next = null;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,199 @@
+import net.phys2d.raw.Body;
+import net.phys2d.raw.BodyList;
+import net.phys2d.raw.shapes.Shape;
+import java.util.ArrayList;
+
+/* The state of a WackoWorld's bodies, goals and gravity as it was built, so the
+ * level can be put back without going near the XML parser or the image
+ * decoders. Bodies are restored in place; shapes and images are shared.
+ * Bodies streamed by WorldChunks are left out, as the chunks reset those.
+ * A level built from xml also keeps each body's element as written.
+ */
+public class LevelSnapshot
+{
+	private Body[] bodies;
+	private Shape[] shapes;
+	private float[] x, y, rotation, velX, velY, angularVel;
+	private float[] mass, friction, restitution;
+	private boolean[] gravityEffected, rotatable, moveable;
+	private String[] sources; //null unless set
+	private ArrayList<Goal> goals;
+	private float gravityX, gravityY; //gravity switches change it
+
+	public LevelSnapshot(WackoWorld w)
+	{
+		BodyList list = w.getBodies();
+		if(w.getChunks() != null)
+		{
+			BodyList kept = new BodyList();
+			for(int i = 0; i < list.size(); i++)
+			{
+				if(!w.getChunks().isStreamed(list.get(i)))
+					kept.add(list.get(i));
+			}
+			list = kept;
+		}
+		int n = list.size();
+		allocate(n);
+		for(int i = 0; i < n; i++)
+		{
+			Body b = list.get(i);
+			bodies[i] = b;
+			shapes[i] = b.getShape();
+			x[i] = b.getPosition().getX();
+			y[i] = b.getPosition().getY();
+			rotation[i] = b.getRotation();
+			velX[i] = b.getVelocity().getX();
+			velY[i] = b.getVelocity().getY();
+			angularVel[i] = b.getAngularVelocity();
+			mass[i] = b.getMass();
+			friction[i] = b.getFriction();
+			restitution[i] = b.getRestitution();
+			gravityEffected[i] = b.getGravityEffected();
+			rotatable[i] = b.isRotatable();
+			moveable[i] = b.isMoveable();
+		}
+		goals = new ArrayList<Goal>(w.getGoals());
+		gravityX = w.getCurrentGravity().getX();
+		gravityY = w.getCurrentGravity().getY();
+	}
+
+	/* Room for n bodies, to be filled with copyBody(), with the goals and
+	 * gravity of settings.
+	 */
+	public LevelSnapshot(int n, LevelSnapshot settings)
+	{
+		allocate(n);
+		goals = settings.goals;
+		gravityX = settings.gravityX;
+		gravityY = settings.gravityY;
+	}
+
+	private void allocate(int n)
+	{
+		bodies = new Body[n];
+		shapes = new Shape[n];
+		x = new float[n];
+		y = new float[n];
+		rotation = new float[n];
+		velX = new float[n];
+		velY = new float[n];
+		angularVel = new float[n];
+		mass = new float[n];
+		friction = new float[n];
+		restitution = new float[n];
+		gravityEffected = new boolean[n];
+		rotatable = new boolean[n];
+		moveable = new boolean[n];
+	}
+
+	public void restore(WackoWorld w)
+	{
+		BodyList list = w.getBodies();
+		if(!hasSameBodies(list))
+		{
+			while(list.size() > 0)
+				w.remove(list.get(list.size() - 1));
+			for(int i = 0; i < bodies.length; i++)
+				w.add(bodies[i]);
+		}
+		for(int i = 0; i < bodies.length; i++)
+			restoreBody(i, bodies[i], w);
+		w.getGoals().clear();
+		w.getGoals().addAll(goals);
+		w.setGravity(gravityX, gravityY);
+	}
+
+	// Puts body i's saved state onto b, which need not be the body saved
+	public void restoreBody(int i, Body b, WackoWorld w)
+	{
+		w.clearArbiters(b);
+		//set() zeroes position, rotation, velocity and forces
+		b.set(shapes[i], mass[i]);
+		b.setPosition(x[i], y[i]);
+		b.setRotation(rotation[i]);
+		b.setFriction(friction[i]);
+		b.setRestitution(restitution[i]);
+		b.setGravityEffected(gravityEffected[i]);
+		b.setRotatable(rotatable[i]);
+		b.setMoveable(moveable[i]);
+		if(velX[i] != 0 || velY[i] != 0)
+			b.adjustVelocity(new net.phys2d.math.Vector2f(velX[i], velY[i]));
+		if(angularVel[i] != 0)
+			b.adjustAngularVelocity(angularVel[i]);
+		if(b instanceof CharBody)
+			((CharBody)b).reset();
+	}
+
+	public int getBodyCount() {
+		return bodies.length;
+	}
+
+	public Body getBody(int i) {
+		return bodies[i];
+	}
+
+	// Makes b the body restored with body i's state from now on
+	public void replaceBody(int i, Body b) {
+		bodies[i] = b;
+	}
+
+	// Saves body i of from as body j
+	public void copyBody(int j, LevelSnapshot from, int i)
+	{
+		bodies[j] = from.bodies[i];
+		shapes[j] = from.shapes[i];
+		x[j] = from.x[i];
+		y[j] = from.y[i];
+		rotation[j] = from.rotation[i];
+		velX[j] = from.velX[i];
+		velY[j] = from.velY[i];
+		angularVel[j] = from.angularVel[i];
+		mass[j] = from.mass[i];
+		friction[j] = from.friction[i];
+		restitution[j] = from.restitution[i];
+		gravityEffected[j] = from.gravityEffected[i];
+		rotatable[j] = from.rotatable[i];
+		moveable[j] = from.moveable[i];
+	}
+
+	// The element each body was built from, in order
+	public void setSources(ArrayList<String> s)
+	{
+		if(s.size() == bodies.length)
+			sources = s.toArray(new String[s.size()]);
+	}
+
+	public boolean hasSources() {
+		return sources != null;
+	}
+
+	public String getSource(int i) {
+		return sources[i];
+	}
+
+	// The goals as the level starts, before any are reached
+	public ArrayList<Goal> getGoals() {
+		return goals;
+	}
+
+	public float getGravityX() {
+		return gravityX;
+	}
+
+	public float getGravityY() {
+		return gravityY;
+	}
+
+	private boolean hasSameBodies(BodyList list)
+	{
+		if(list.size() != bodies.length)
+			return false;
+		for(int i = 0; i < bodies.length; i++)
+		{
+			if(list.get(i) != bodies[i])
+				return false;
+		}
+		return true;
+	}
+}
\ No newline at end of file
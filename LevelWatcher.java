@@ -0,0 +1,136 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLStreamException;
+
+/* Watches the level file a session plays from and, each time it is saved,
+ * reads it again, parsing only the <world>s and elements that changed, and
+ * queues the level being played for the session to merge in between steps
+ * (see LevelEdit). Runs on a daemon thread of its own, so the game never
+ * waits on the parser. Only a level file that is a plain file on disk can
+ * be watched. A compiled level file's edits reach the game as its levels
+ * are next loaded.
+ */
+public class LevelWatcher implements Runnable
+{
+	private static final long SETTLE_MILLIS = 5; //editors save in bursts
+
+	private GameSession session;
+	private Runnable listener;
+	private String file;
+	private File levelFile;
+	private WatchService watcher;
+	private Thread thread;
+
+	/* listener is run on the watcher's thread after each edit is queued,
+	 * e.g. to wake a game loop that is idle.
+	 */
+	public LevelWatcher(GameSession s, Runnable l)
+	{
+		session = s;
+		listener = l;
+		file = s.getWorldsFile();
+	}
+
+	// Returns false if the level file cannot be watched
+	public boolean start()
+	{
+		levelFile = WorldBuilder.getLevelFile(file);
+		if(levelFile == null)
+			return false;
+		try {
+			watcher = FileSystems.getDefault().newWatchService();
+			//editors often save by replacing the file, so creation counts too
+			levelFile.getAbsoluteFile().getParentFile().toPath().register(watcher,
+				StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		thread = new Thread(this, "level watcher");
+		thread.setDaemon(true);
+		thread.start();
+		return true;
+	}
+
+	public void stop()
+	{
+		if(watcher == null)
+			return;
+		try {
+			watcher.close();
+		}
+		catch(IOException e) {}
+	}
+
+	public void run()
+	{
+		try {
+			while(true)
+			{
+				if(!isLevelFileIn(watcher.take()))
+					continue;
+				long detected = System.nanoTime();
+				//wait for the rest of the save to land
+				WatchKey key;
+				while((key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null)
+					isLevelFileIn(key);
+				reload(detected);
+			}
+		}
+		catch(ClosedWatchServiceException e) {}
+		catch(InterruptedException e) {}
+	}
+
+	// Also readies the key for more events
+	private boolean isLevelFileIn(WatchKey key)
+	{
+		boolean found = false;
+		for(WatchEvent<?> event : key.pollEvents())
+		{
+			Object name = event.context();
+			if(name instanceof Path && name.toString().equals(levelFile.getName()))
+				found = true;
+		}
+		key.reset();
+		return found;
+	}
+
+	private void reload(long detected)
+	{
+		boolean[] changed;
+		//the player may move on meanwhile; applyEdit reads the level then
+		int level = session.getCurrentLevel();
+		WorldBuilder.WorldSource source = null;
+		try {
+			changed = WorldBuilder.reloadLevels(file);
+			if(level < changed.length && changed[level]
+				&& !file.endsWith(LevelCompiler.EXTENSION))
+				source = WorldBuilder.getWorldSource(file, level);
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		catch(XMLStreamException e) {
+			//most likely caught mid-save; the next save tries again
+			System.err.println(file + ": " + e.getMessage());
+			return;
+		}
+		boolean any = false;
+		for(int i = 0; i < changed.length; i++)
+			any |= changed[i];
+		if(!any)
+			return;
+		session.queueEdit(new LevelEdit(file, level, source, changed, detected));
+		listener.run();
+	}
+}
\ No newline at end of file
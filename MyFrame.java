@@ -11,11 +11,34 @@ public class MyFrame extends JFrame
 	{
 		content = new Phys2DGamePanel("rsrc/level.xml");
 		content.setPreferredSize(new Dimension(500, 400));
+		content.useActiveRendering();
+		content.watchLevelFile();
 		setResizable(false);
 		add(content);
 		pack();
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 	}
+	
+	// Saves everything played to the given file when the window closes
+	public void recordTo(final String fileName)
+	{
+		content.startRecording();
+		addWindowListener(new WindowAdapter() {
+			public void windowClosing(WindowEvent e)
+			{
+				content.stop();
+				try {
+					java.io.FileOutputStream out =
+						new java.io.FileOutputStream(fileName);
+					content.getRecording().write(out);
+					out.close();
+				}
+				catch(IOException ex) {
+					ex.printStackTrace();
+				}
+			}
+		});
+	}
 
 	public void runContent()
 	{
@@ -24,7 +47,10 @@ public class MyFrame extends JFrame
 
 	public static void main(String[] args)
 	{
+		PerfStats.register();
 		MyFrame mf = new MyFrame();
+		if(args.length == 2 && args[0].equals("-record"))
+			mf.recordTo(args[1]);
 		mf.setVisible(true);
 		mf.runContent();
 	}
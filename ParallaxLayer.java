@@ -0,0 +1,142 @@
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/* One background image behind a level, scrolling at 1/scrollFactor of the
+ * view's speed. A stretched layer is scaled so that scrolling across the
+ * whole world shows the whole image; that scaled copy is made once per
+ * view size, unless it would be bigger than MAX_PRESCALED_PIXELS, as for
+ * a very wide world, in which case the image is scaled as it is drawn so
+ * memory does not grow with the world. A tiled layer repeats the image at
+ * its own size instead, so large worlds do not need large images.
+ * Otherwise a frame is plain translated copies of a display-compatible
+ * image.
+ */
+public class ParallaxLayer
+{
+	public static final float DEFAULT_SCROLL_FACTOR = 4;
+	public static final long MAX_PRESCALED_PIXELS = 4L << 20; //16 MB in ARGB
+
+	private String imageFile;
+	private float scrollFactor;
+	private boolean tiled;
+	private BufferedImage image;
+	private BufferedImage drawn; //compatible, and scaled if stretched
+	private int drawnViewWidth, drawnViewHeight;
+	private double scaleX, scaleY; //still to apply when drawing, if stretched
+	private AffineTransform stretch;
+
+	public ParallaxLayer(String fileName, float scroll, boolean tile)
+	{
+		imageFile = fileName;
+		scrollFactor = scroll > 0 ? scroll : DEFAULT_SCROLL_FACTOR;
+		tiled = tile;
+		try {
+			image = AssetCache.getShared().getImage(fileName);
+		}
+		catch(IOException e) {}
+	}
+
+	public String getImageFile() {
+		return imageFile;
+	}
+
+	public float getScrollFactor() {
+		return scrollFactor;
+	}
+
+	public boolean isTiled() {
+		return tiled;
+	}
+
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/* Draws the layer for a view whose top left corner is at (viewX, viewY)
+	 * in the world. g must be in screen coordinates; gc may be null.
+	 */
+	public void draw(Graphics2D g, double viewX, double viewY, int viewWidth,
+		int viewHeight, int worldWidth, int worldHeight, GraphicsConfiguration gc)
+	{
+		if(image == null)
+			return;
+		if(drawn == null || drawnViewWidth != viewWidth || drawnViewHeight != viewHeight)
+		{
+			prepare(viewWidth, viewHeight, worldWidth, worldHeight, gc);
+			if(drawn == null)
+				return;
+		}
+		int x = (int)Math.round(-viewX/scrollFactor);
+		int y = (int)Math.round(-viewY/scrollFactor);
+		if(!tiled)
+		{
+			if(scaleX == 1 && scaleY == 1)
+				g.drawImage(drawn, x, y, null);
+			else
+			{
+				stretch.setToTranslation(x, y);
+				stretch.scale(scaleX, scaleY);
+				g.drawImage(drawn, stretch, null);
+			}
+			return;
+		}
+		int w = drawn.getWidth(), h = drawn.getHeight();
+		int startX = Math.floorMod(x, w) - w;
+		int startY = Math.floorMod(y, h) - h;
+		for(int ty = startY; ty < viewHeight; ty += h)
+			for(int tx = startX; tx < viewWidth; tx += w)
+				g.drawImage(drawn, tx, ty, null);
+	}
+
+	private void prepare(int viewWidth, int viewHeight, int worldWidth, int worldHeight,
+		GraphicsConfiguration gc)
+	{
+		drawnViewWidth = viewWidth;
+		drawnViewHeight = viewHeight;
+		scaleX = 1;
+		scaleY = 1;
+		BufferedImage source = image;
+		if(!tiled)
+		{
+			int w = viewWidth + (int)((worldWidth - viewWidth)/scrollFactor);
+			int h = viewHeight + (int)((worldHeight - viewHeight)/scrollFactor);
+			if(w <= 0 || h <= 0)
+			{
+				drawn = null;
+				return;
+			}
+			if((long)w * h > MAX_PRESCALED_PIXELS)
+			{
+				scaleX = w / (double)image.getWidth();
+				scaleY = h / (double)image.getHeight();
+				stretch = new AffineTransform();
+				drawn = toCompatible(image, gc);
+				return;
+			}
+			try {
+				source = AssetCache.getShared().getImage(imageFile, w, h);
+			}
+			catch(IOException e) {
+				drawn = null;
+				return;
+			}
+		}
+		drawn = toCompatible(source, gc);
+	}
+
+	private static BufferedImage toCompatible(BufferedImage source, GraphicsConfiguration gc)
+	{
+		if(gc == null || source.getColorModel().equals(
+			gc.getColorModel(source.getTransparency())))
+			return source;
+		BufferedImage copy = gc.createCompatibleImage(
+			source.getWidth(), source.getHeight(), source.getTransparency());
+		Graphics2D g = copy.createGraphics();
+		g.drawImage(source, 0, 0, null);
+		g.dispose();
+		return copy;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,262 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.ObjectName;
+import net.phys2d.raw.ArbiterList;
+
+/* Process-wide timing histograms and world counts: step, update, paint
+ * and level load times, how long level edits take to reach the world,
+ * frames per second, and how many bodies, awake
+ * bodies, arbiters and contacts the shown world has. Recording is a few
+ * atomic adds, so it is left on everywhere. The panel shows these in its
+ * overlay, and register() publishes them as a JMX MBean.
+ */
+public class PerfStats implements PerfStatsMBean
+{
+	public static final String OBJECT_NAME = "Phys2DGame:type=PerfStats";
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private static final PerfStats shared = new PerfStats();
+
+	public final Histogram step = new Histogram();
+	public final Histogram update = new Histogram();
+	public final Histogram paint = new Histogram();
+	public final Histogram levelLoad = new Histogram();
+	public final Histogram levelEdit = new Histogram(); //from save to applied
+
+	private volatile int bodies, awake, arbiters, contacts;
+	private volatile double framesPerSecond;
+	private long fpsWindowStart; //only touched by the painting thread
+	private int fpsWindowFrames;
+
+	public static PerfStats getShared() {
+		return shared;
+	}
+
+	// Publishes the shared stats over JMX; returns false if that is not allowed
+	public static boolean register()
+	{
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			javax.management.MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(!server.isRegistered(name))
+				server.registerMBean(shared, name);
+			return true;
+		}
+		catch(Exception e) {
+			return false;
+		}
+	}
+
+	// Called once per frame drawn; frames per second is updated each second
+	public void frameDrawn(long now)
+	{
+		if(fpsWindowFrames == 0)
+			fpsWindowStart = now;
+		fpsWindowFrames++;
+		long elapsed = now - fpsWindowStart;
+		if(elapsed >= NANOS_PER_SECOND)
+		{
+			framesPerSecond = (fpsWindowFrames - 1) * (double)NANOS_PER_SECOND / elapsed;
+			fpsWindowFrames = 0;
+		}
+	}
+
+	// Counts what is in the world being played, after a step
+	public void countWorld(WackoWorld w)
+	{
+		ArbiterList list = w.getArbiters();
+		int n = 0;
+		for(int i = 0; i < list.size(); i++)
+			n += list.get(i).getNumContacts();
+		bodies = w.getBodies().size();
+		awake = w.getAwakeCount();
+		arbiters = list.size();
+		contacts = n;
+	}
+
+	public long getSteps() {
+		return step.getCount();
+	}
+
+	public double getStepMeanMicros() {
+		return step.getMean() / 1000;
+	}
+
+	public double getStepP99Micros() {
+		return step.getPercentile(0.99) / 1000;
+	}
+
+	public double getStepMaxMicros() {
+		return step.getMax() / 1000.0;
+	}
+
+	public long getUpdates() {
+		return update.getCount();
+	}
+
+	public double getUpdateMeanMicros() {
+		return update.getMean() / 1000;
+	}
+
+	public double getUpdateMaxMicros() {
+		return update.getMax() / 1000.0;
+	}
+
+	public long getPaints() {
+		return paint.getCount();
+	}
+
+	public double getPaintMeanMicros() {
+		return paint.getMean() / 1000;
+	}
+
+	public double getPaintP99Micros() {
+		return paint.getPercentile(0.99) / 1000;
+	}
+
+	public double getPaintMaxMicros() {
+		return paint.getMax() / 1000.0;
+	}
+
+	public double getFramesPerSecond() {
+		return framesPerSecond;
+	}
+
+	public long getLevelLoads() {
+		return levelLoad.getCount();
+	}
+
+	public double getLevelLoadMeanMillis() {
+		return levelLoad.getMean() / 1000000;
+	}
+
+	public double getLevelLoadMaxMillis() {
+		return levelLoad.getMax() / 1000000.0;
+	}
+
+	public long getLevelEdits() {
+		return levelEdit.getCount();
+	}
+
+	public double getLevelEditMeanMillis() {
+		return levelEdit.getMean() / 1000000;
+	}
+
+	public double getLevelEditMaxMillis() {
+		return levelEdit.getMax() / 1000000.0;
+	}
+
+	public int getBodyCount() {
+		return bodies;
+	}
+
+	public int getAwakeCount() {
+		return awake;
+	}
+
+	public int getArbiterCount() {
+		return arbiters;
+	}
+
+	public int getContactCount() {
+		return contacts;
+	}
+
+	public void reset()
+	{
+		step.reset();
+		update.reset();
+		paint.reset();
+		levelLoad.reset();
+		levelEdit.reset();
+	}
+
+	/* Lines for the on-screen overlay. Allocates, so only call it when the
+	 * overlay is showing.
+	 */
+	public String[] getOverlayLines()
+	{
+		return new String[] {
+			String.format("%.0f fps", getFramesPerSecond()),
+			String.format("step %.0f us (p99 %.0f, max %.0f)",
+				getStepMeanMicros(), getStepP99Micros(), getStepMaxMicros()),
+			String.format("paint %.0f us (p99 %.0f, max %.0f)",
+				getPaintMeanMicros(), getPaintP99Micros(), getPaintMaxMicros()),
+			String.format("load %.1f ms (max %.1f, %d loads)",
+				getLevelLoadMeanMillis(), getLevelLoadMaxMillis(), getLevelLoads()),
+			bodies + " bodies, " + awake + " awake, "
+				+ arbiters + " arbiters, " + contacts + " contacts"
+		};
+	}
+
+	/* Durations in nanoseconds, bucketed by powers of two. Percentiles are
+	 * the upper edge of the bucket they fall in, so within a factor of two.
+	 */
+	public static class Histogram
+	{
+		private static final int BUCKETS = 64;
+
+		private AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private AtomicLong count = new AtomicLong();
+		private AtomicLong total = new AtomicLong();
+		private AtomicLong max = new AtomicLong();
+
+		public void record(long nanos)
+		{
+			if(nanos < 0)
+				nanos = 0;
+			//bucket i holds [2^(i-1), 2^i)
+			buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+			count.incrementAndGet();
+			total.addAndGet(nanos);
+			long m = max.get();
+			while(nanos > m && !max.compareAndSet(m, nanos))
+				m = max.get();
+		}
+
+		// Records the time since start, a System.nanoTime() value
+		public void recordSince(long start) {
+			record(System.nanoTime() - start);
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public double getMean()
+		{
+			long n = count.get();
+			return n == 0 ? 0 : total.get() / (double)n;
+		}
+
+		public long getMax() {
+			return max.get();
+		}
+
+		public double getPercentile(double p)
+		{
+			long n = count.get();
+			if(n == 0)
+				return 0;
+			long wanted = (long)Math.ceil(p * n);
+			long seen = 0;
+			for(int i = 0; i < BUCKETS; i++)
+			{
+				seen += buckets.get(i);
+				if(seen >= wanted)
+					return Math.min(max.get(), (double)(1L << i));
+			}
+			return max.get();
+		}
+
+		public void reset()
+		{
+			for(int i = 0; i < BUCKETS; i++)
+				buckets.set(i, 0);
+			count.set(0);
+			total.set(0);
+			max.set(0);
+		}
+	}
+}
\ No newline at end of file
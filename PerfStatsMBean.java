@@ -0,0 +1,35 @@
+/* What PerfStats publishes over JMX. Times are in microseconds except
+ * level loads and edits, which are in milliseconds.
+ */
+public interface PerfStatsMBean
+{
+	public long getSteps();
+	public double getStepMeanMicros();
+	public double getStepP99Micros();
+	public double getStepMaxMicros();
+
+	public long getUpdates();
+	public double getUpdateMeanMicros();
+	public double getUpdateMaxMicros();
+
+	public long getPaints();
+	public double getPaintMeanMicros();
+	public double getPaintP99Micros();
+	public double getPaintMaxMicros();
+	public double getFramesPerSecond();
+
+	public long getLevelLoads();
+	public double getLevelLoadMeanMillis();
+	public double getLevelLoadMaxMillis();
+
+	public long getLevelEdits();
+	public double getLevelEditMeanMillis();
+	public double getLevelEditMaxMillis();
+
+	public int getBodyCount();
+	public int getAwakeCount();
+	public int getArbiterCount();
+	public int getContactCount();
+
+	public void reset();
+}
\ No newline at end of file
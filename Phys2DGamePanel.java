@@ -1,238 +1,531 @@
 import java.awt.event.*;
+import java.awt.BorderLayout;
+import java.awt.Canvas;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Dimension;
 import java.awt.Color;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
 import java.awt.geom.AffineTransform;
 import net.phys2d.raw.*;
 import net.phys2d.math.*;
 import net.phys2d.raw.shapes.*;
 import java.awt.Image;
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
 
 public  class Phys2DGamePanel extends javax.swing.JPanel
-	implements Runnable, KeyListener
+	implements Runnable, KeyListener, FocusListener
 {
 	private static final int ITERATIONS = 5;
-	private static final int SLEEP_DELAY = 6;
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	private static final long STEP_NANOS = (long)(NANOS_PER_SECOND/CharBody.SPS);
+	private static final int MAX_CATCH_UP_STEPS = 5;
+	private static final int RENDER_FPS = 60;
+	private static final long FRAME_NANOS = NANOS_PER_SECOND/RENDER_FPS;
 	private static final int MIN_CHAR_FRM_DIST = 180;
-	private static final int BG_SCROLL_FACTOR = 4;
+	private static final int NUM_BUFFERS = 2;
+	private static final int CULL_MARGIN = 50; //room for image borders
 
-	private long lastUnpauseTime, playTime;
+	private volatile long lastUnpauseTime, playTime;
 	
-	private Thread animator;
-	private boolean isRunning, isPaused;
-	private boolean shouldReset;
-	private AffineTransform aft;
-	private double panelX, panelY;
-	private int frameCount;
+	private Thread animator, renderer;
+	private volatile boolean isRunning, isPaused;
+	private volatile boolean showStats; //performance overlay under the timer
+	private volatile boolean redrawRequested; //for a frame while idle
+	private PerfStats stats;
 	private int appWidth, appHeight;
-	private String worldsFile;
 	
+	/* Owned by the game loop. The renderer only sees what is published to
+	 * frames after each step.
+	 */
 	protected WackoWorld world;
-	private int currentLevel;
+	private GameSession session;
+	private LevelWatcher watcher; //null unless watching the level file
+	private int shownWorldChanges;
+	private double panelX, panelY; //camera
+	private int frameCount;
+	private BodyList visibleBodies;
+	private StaticTiles staticTiles; //for the world being shown
+	private RenderSnapshot.Exchange frames;
+	
+	// Owned by whichever thread draws
+	private AffineTransform aft;
+	private Canvas canvas; //only set when rendering actively
+	private BufferStrategy strategy;
 
 	public Phys2DGamePanel(String xmlFile)
 	{
 		setFocusable(true);
 		addKeyListener(this);
+		addFocusListener(this);
+		addComponentListener(new ComponentAdapter() {
+			public void componentResized(ComponentEvent e) {
+				requestRedraw();
+			}
+			public void componentShown(ComponentEvent e) {
+				requestRedraw();
+			}
+		});
 		aft = new AffineTransform();
-		currentLevel = 0;
-		worldsFile = xmlFile;
+		visibleBodies = new BodyList();
+		frames = new RenderSnapshot.Exchange();
+		stats = PerfStats.getShared();
+		session = new GameSession(xmlFile, 0);
 		lastUnpauseTime = System.currentTimeMillis();
-		resetWorld();
+		showWorld();
+		publishFrame();
 		setVisible(true);
 	}
+	
+	// Records all input from now on, starting over from a fresh level
+	public void startRecording()
+	{
+		session.startRecording();
+		showWorld();
+		publishFrame();
+	}
+	
+	public InputLog getRecording() {
+		return session.getRecording();
+	}
+	
+	/* Merges saved changes to the level file into the level being played
+	 * from now on. Returns false if the file cannot be watched.
+	 */
+	public boolean watchLevelFile()
+	{
+		if(watcher != null)
+			return true;
+		watcher = new LevelWatcher(session, new Runnable() {
+			public void run() {
+				wake();
+			}
+		});
+		if(watcher.start())
+			return true;
+		watcher = null;
+		return false;
+	}
+	
+	/* Draws every frame into a buffer strategy on a canvas filling this
+	 * panel from a render thread of its own, instead of asking Swing to
+	 * repaint. Call before start().
+	 */
+	public void useActiveRendering()
+	{
+		canvas = new Canvas();
+		canvas.setIgnoreRepaint(true);
+		canvas.setFocusable(true);
+		canvas.addKeyListener(this);
+		canvas.addFocusListener(this);
+		setFocusable(false); //so the frame hands its focus to the canvas
+		setIgnoreRepaint(true);
+		setLayout(new BorderLayout());
+		add(canvas, BorderLayout.CENTER);
+	}
 
 	public void keyTyped(KeyEvent e)
 	{
 		char key = e.getKeyChar();
+		if(key == 'o')
+			showStats = !showStats;
+		//the session decides what still counts while paused
 		if(key == 'p')
-		{
-			if(isPaused)
-				unpause();
-			else
-				pause();
-		}
-		if(isPaused)
-			return;
-		if(key == 'F')
-		{
-			boolean b = world.getBob().getGravityEffected();
-			world.getBob().setGravityEffected(!b);
-		}
+			session.queueInput(InputLog.PAUSE);
+		else if(key == 'F')
+			session.queueInput(InputLog.FLOAT);
 		else if(key == 'r')
-			shouldReset = true;
+			session.queueInput(InputLog.RESET);
 		else if(key == 'd')
-			world.getBob().switchDancing();
+			session.queueInput(InputLog.DANCE);
 		else if(key == 'n')
-			advanceLevel();
+			session.queueInput(InputLog.NEXT_LEVEL);
+		wake();
 	}
 	
 	public void keyPressed(KeyEvent e)
 	{
-		if(isPaused)
-			return;
 		int keyCode = e.getKeyCode();
 		switch(keyCode)
 		{
 			case KeyEvent.VK_UP:
-				world.getBob().jump();
+				session.queueInput(InputLog.JUMP);
 				break;
 			case KeyEvent.VK_RIGHT:
-				world.getBob().setRightPressed(true);
+				session.queueInput(InputLog.PRESS_RIGHT);
 				break;
 			case KeyEvent.VK_LEFT:
-				world.getBob().setLeftPressed(true);
+				session.queueInput(InputLog.PRESS_LEFT);
 				break;
 		}
+		wake();
 	}
 	
 	public void keyReleased(KeyEvent e)
 	{
 		if(e.getKeyCode() == KeyEvent.VK_RIGHT)
-			world.getBob().setRightPressed(false);
+			session.queueInput(InputLog.RELEASE_RIGHT);
 		if(e.getKeyCode() == KeyEvent.VK_LEFT)
-			world.getBob().setLeftPressed(false);
+			session.queueInput(InputLog.RELEASE_LEFT);
+		wake();
+	}
+	
+	public void focusGained(FocusEvent e) {
+		wake();
+	}
+	
+	public void focusLost(FocusEvent e) {
+		requestRedraw();
+	}
+	
+	// Draws a frame soon, even while the game is idle
+	public void requestRedraw()
+	{
+		redrawRequested = true;
+		wake();
+	}
+	
+	private void wake()
+	{
+		Thread t = animator;
+		if(t != null)
+			LockSupport.unpark(t);
 	}
 
 	public void start()
 	{
 		if (animator == null || !isRunning)
 		{
+			isRunning = true;
 			animator = new Thread(this);
+			if(canvas != null)
+			{
+				renderer = new Thread(new Runnable() {
+					public void run() {
+						renderLoop();
+					}
+				}, "render");
+				renderer.setDaemon(true);
+				renderer.start();
+			}
 			animator.start();
 		}
 	}
 
 	public void stop()
 	{	isRunning = false;
+		if(watcher != null)
+			watcher.stop();
+		wake();
+		if(renderer != null)
+			LockSupport.unpark(renderer);
 	}
 
+	/* Fixed timestep loop: real time is banked in an accumulator and spent
+	 * in whole steps of 1/SPS seconds, so the physics runs at the rate
+	 * CharBody assumes no matter how long painting takes. After a long
+	 * stall at most MAX_CATCH_UP_STEPS are run and the rest is dropped.
+	 * Frames are drawn from the published snapshots on their own
+	 * RENDER_FPS schedule, by the EDT or the render thread, so drawing
+	 * overlaps the next steps instead of holding them up. Frame deadlines
+	 * advance by whole frames so late wakeups do not add up to drift.
+	 * While paused or unfocused the loop goes idle: nothing is stepped or
+	 * drawn until input, focus or a redraw request wakes it.
+	 */
 	public void run()
 	{
-		isRunning = true;
+		long lastTime = System.nanoTime();
+		long nextFrameTime = lastTime;
+		long accumulator = 0;
 		while(isRunning)
-		{	repaint();
-			try
-			{	Thread.sleep(SLEEP_DELAY);
+		{
+			if(isIdle())
+			{
+				idle();
+				//time spent idle is not owed to the simulation
+				lastTime = System.nanoTime();
+				nextFrameTime = lastTime;
+				accumulator = 0;
+				continue;
+			}
+			long now = System.nanoTime();
+			accumulator += now - lastTime;
+			lastTime = now;
+			int steps = 0;
+			while(accumulator >= STEP_NANOS && steps < MAX_CATCH_UP_STEPS)
+			{
+				update();
+				accumulator -= STEP_NANOS;
+				steps++;
 			}
-			catch(InterruptedException e){}
-			update();
+			if(accumulator >= STEP_NANOS)
+				accumulator = 0;
+			if(now >= nextFrameTime)
+			{
+				drawFrame();
+				nextFrameTime += FRAME_NANOS;
+				//more than a frame behind: start the schedule again
+				if(nextFrameTime <= now)
+					nextFrameTime = now + FRAME_NANOS;
+			}
+			long nextStepTime = now + STEP_NANOS - accumulator;
+			parkUntil(Math.min(nextStepTime, nextFrameTime));
+		}
+	}
+	
+	// parkNanos may return early, e.g. when input wakes the loop
+	private void parkUntil(long deadline)
+	{
+		long wait = deadline - System.nanoTime();
+		while(wait > 0 && isRunning && !isIdle())
+		{
+			LockSupport.parkNanos(this, wait);
+			wait = deadline - System.nanoTime();
 		}
 	}
+	
+	private boolean isIdle() {
+		return isPaused || !isFocused();
+	}
+	
+	private boolean isFocused() {
+		return canvas == null ? isFocusOwner() : canvas.isFocusOwner();
+	}
+	
+	/* Parks until woken. Input queued while paused is applied as it comes,
+	 * which is how the game gets unpaused, and redraws are done on demand.
+	 * Level edits are shown as they come, focused or not.
+	 */
+	private void idle()
+	{
+		redrawRequested = false;
+		publishFrame();
+		drawFrame();
+		while(isRunning && isIdle())
+		{
+			LockSupport.park(this);
+			if(session.applyEdit())
+			{
+				if(session.getWorldChanges() != shownWorldChanges)
+					showWorld();
+				redrawRequested = true;
+			}
+			if(isFocused())
+				update();
+			if(redrawRequested)
+			{
+				redrawRequested = false;
+				publishFrame();
+				drawFrame();
+			}
+		}
+	}
+	
+	private void drawFrame()
+	{
+		if(renderer == null)
+			repaint();
+		else
+			LockSupport.unpark(renderer);
+	}
 
 	public void update()
 	{
-		if( !isFocusOwner() || isPaused)
+		if(!isFocused())
 			return;
 		
-		float bobX = world.getBob().getPosition().getX();
-		float bobY = world.getBob().getPosition().getY();
-		float halfBobWidth = world.getBob().getWidth()/2;
-		float halfBobHeight = world.getBob().getHeight()/2;
-		if(bobX-halfBobWidth > world.getWidth() || bobX+halfBobWidth < 0
-			|| bobY-halfBobHeight > world.getHeight() || bobY+halfBobHeight < 0)
-			shouldReset = true;
-		if(world.isComplete())
-			advanceLevel();
-		if(shouldReset)
+		long start = System.nanoTime();
+		//queued input, pausing included, is applied here between steps
+		session.update();
+		if(session.isPaused() != isPaused)
 		{
-			shouldReset = false;
-			resetWorld();
+			if(session.isPaused())
+				pause();
+			else
+				unpause();
 		}
+		if(isPaused)
+			return;
 		frameCount++;
-		world.step();
+		if(session.getWorldChanges() != shownWorldChanges)
+			showWorld();
+		publishFrame();
+		stats.update.recordSince(start);
+		stats.countWorld(world);
 	}
 	
-	public void pause()
+	/* Moves the camera after bob and copies what is in view into a render
+	 * snapshot for the renderer to pick up. The game loop calls this after
+	 * every step; call it directly to show the current state while the
+	 * loop is not running.
+	 */
+	public void publishFrame()
+	{
+		int width = getWidth(), height = getHeight();
+		//until the panel is laid out there is no view to keep bob in
+		if(width > 0 && height > 0)
+			updateCamera(width, height);
+		if(staticTiles == null || !staticTiles.isCurrent(world))
+			staticTiles = new StaticTiles(world, getGraphicsConfiguration());
+		RenderSnapshot frame = frames.getBack();
+		frame.begin(world, staticTiles, panelX, panelY, width, height);
+		//only what is inside the view, found once per frame
+		float viewX = (float)panelX - CULL_MARGIN;
+		float viewY = (float)panelY - CULL_MARGIN;
+		float viewW = width + 2*CULL_MARGIN;
+		float viewH = height + 2*CULL_MARGIN;
+		//goals drop out of getGoals() once reached
+		for(Goal gol : world.getGoals())
+		{
+			if(inView(gol, viewX, viewY, viewW, viewH))
+				frame.addZone(gol);
+		}
+		ArrayList<TriggerZone> triggers = world.getTriggers();
+		for(int i = 0; i < triggers.size(); i++)
+		{
+			TriggerZone zone = triggers.get(i);
+			if(!(zone instanceof Goal) && inView(zone, viewX, viewY, viewW, viewH))
+				frame.addZone(zone);
+		}
+		//static geometry comes from tiles; everything else draws on top
+		world.getBodiesIn(viewX, viewY, viewW, viewH, visibleBodies);
+		for(int i = 0; i < visibleBodies.size(); i++)
+		{
+			if(!StaticTiles.isCached(visibleBodies.get(i)))
+				frame.addBody(visibleBodies.get(i), frameCount);
+		}
+		JointList joints = world.getJoints();
+		for(int i = 0; i < joints.size(); i++)
+		{
+			ROVector2f p1 = joints.get(i).getBody1().getPosition();
+			ROVector2f p2 = joints.get(i).getBody2().getPosition();
+			float minX = Math.min(p1.getX(), p2.getX());
+			float minY = Math.min(p1.getY(), p2.getY());
+			if(inView(minX, minY, Math.max(p1.getX(), p2.getX()) - minX,
+				Math.max(p1.getY(), p2.getY()) - minY, viewX, viewY, viewW, viewH))
+				frame.addJoint(joints.get(i));
+		}
+		//bob goes on top of everything
+		frame.addBody(world.getBob(), frameCount);
+		frames.publish();
+	}
+	
+	// Keeps the timer in step with the session
+	private void pause()
 	{
 		long currTime = System.currentTimeMillis();
 		playTime += (currTime - lastUnpauseTime);
 		isPaused = true;
 	}
 	
-	public void unpause()
+	private void unpause()
 	{
 		lastUnpauseTime = System.currentTimeMillis();
 		isPaused = false;
 	}
 	
-	private void resetWorld()
+	// Switches to the session's current world and centres the view on bob
+	private void showWorld()
 	{
-		world = WorldBuilder.buildWorld(worldsFile, currentLevel);
+		world = session.getWorld();
+		shownWorldChanges = session.getWorldChanges();
 		panelX = (double) world.getBob().getPosition().getX() - world.getWidth()/2;
 		panelY = (double) world.getBob().getPosition().getY() - world.getHeight()/2;
 	}
 	
-	private void advanceLevel()
+	// Draws a frame whenever the game loop says one is due
+	private void renderLoop()
 	{
-		currentLevel++;
-		WackoWorld w = WorldBuilder.buildWorld(worldsFile, currentLevel);
-		if(w == null)
+		while(isRunning)
 		{
-			currentLevel = 0;
-			resetWorld();
+			LockSupport.park(this);
+			if(isRunning)
+				renderActive();
 		}
-		else
-			world = w;
 	}
 	
-	public void paint(Graphics g)
+	// Draws a frame straight to the canvas, redrawing if the buffer was lost
+	private void renderActive()
 	{
-		Graphics2D g2d = (Graphics2D)g;
-		g2d.setColor(Color.WHITE);
-		g2d.fill(new java.awt.Rectangle(getSize()));
-		
-		AffineTransform a = new AffineTransform(aft);
-		a.setToTranslation(-panelX/BG_SCROLL_FACTOR, -panelY/BG_SCROLL_FACTOR);
-		int addedWidth = (world.getWidth() - getSize().width)/BG_SCROLL_FACTOR;
-		int addedHeight = (world.getHeight() - getSize().height)/BG_SCROLL_FACTOR;
-		double imgW = (double)getSize().width + addedWidth;
-		double imgH = (double)getSize().height + addedHeight;
-		Image bg = world.getBackground();
-		if(bg != null)
+		if(strategy == null)
 		{
-			a.scale(imgW/bg.getWidth(this), imgH/bg.getHeight(this));
-			g2d.drawImage(bg, a, this);
+			if(!canvas.isDisplayable())
+				return;
+			canvas.createBufferStrategy(NUM_BUFFERS);
+			strategy = canvas.getBufferStrategy();
 		}
-		setTranslation(g2d, aft);
-		for(Goal gol : world.getGoals())
+		do
 		{
-			Image goalImg = gol.getImage();
-			int halfGoalImgWidth = goalImg.getWidth(this)/2;
-			int halfGoalImgHeight = goalImg.getHeight(this)/2;
-			int goalCornerX = gol.getX() - halfGoalImgWidth;
-			int goalCornerY = gol.getY() - halfGoalImgHeight;
-			aft.setToTranslation(goalCornerX, goalCornerY);
-			g2d.drawImage(goalImg, aft, this);
+			do
+			{
+				Graphics2D g2d = (Graphics2D)strategy.getDrawGraphics();
+				try {
+					render(g2d);
+				}
+				finally {
+					g2d.dispose();
+				}
+			}
+			while(strategy.contentsRestored());
+			strategy.show();
 		}
-		BodyList bodies = world.getBodies();
-		for(int i = 0; i < bodies.size(); i++)
+		while(strategy.contentsLost());
+		Toolkit.getDefaultToolkit().sync();
+	}
+	
+	public void paint(Graphics g)
+	{
+		if(canvas == null)
+			render((Graphics2D)g);
+	}
+	
+	// Draws the newest published snapshot; nothing here reads the world
+	private void render(Graphics2D g2d)
+	{
+		long start = System.nanoTime();
+		RenderSnapshot frame = frames.getFront();
+		g2d.setColor(Color.WHITE);
+		g2d.fillRect(0, 0, getWidth(), getHeight());
+		if(frame.getSequence() == 0)
+			return;
+		
+		//back to front; each layer is pre-scaled once and blitted
+		double camX = frame.getCameraX(), camY = frame.getCameraY();
+		int width = frame.getViewWidth(), height = frame.getViewHeight();
+		int worldWidth = frame.getWorldWidth(), worldHeight = frame.getWorldHeight();
+		java.awt.GraphicsConfiguration gc = getGraphicsConfiguration();
+		ParallaxLayer bg = frame.getBackground();
+		if(bg != null)
+			bg.draw(g2d, camX, camY, width, height, worldWidth, worldHeight, gc);
+		for(int i = 0; i < frame.getLayerCount(); i++)
+			frame.getLayer(i).draw(g2d, camX, camY, width, height, worldWidth, worldHeight, gc);
+		aft.setToTranslation(-camX, -camY);
+		g2d.setTransform(aft);
+		for(int i = 0; i < frame.getZoneCount(); i++)
+			frame.getZoneSprite(i).draw(g2d, frame.getZoneX(i), frame.getZoneY(i));
+		frame.getTiles().draw(g2d, (float)camX - CULL_MARGIN, (float)camY - CULL_MARGIN,
+			width + 2*CULL_MARGIN, height + 2*CULL_MARGIN);
+		for(int i = 0; i < frame.getBodyCount(); i++)
 		{
-			setTranslation(g2d, aft);
-			Body b = bodies.get(i);
-			if(b instanceof DrawableBody)
-				((DrawableBody)b).draw(g2d, frameCount);
+			g2d.setTransform(aft);
+			SpriteAtlas.Sprite sprite = frame.getSprite(i);
+			if(sprite != null)
+				DrawableBody.drawSprite(g2d, sprite,
+					frame.getX(i), frame.getY(i), frame.getRotation(i));
 			else
-				drawStandardBody(g2d, b);
-		}
-		JointList joints = world.getJoints();
-		for(int i = 0; i < joints.size(); i++)
-		{
-			setTranslation(g2d, aft);
-			if(joints.get(i) instanceof SpringJoint)
-				drawSpringJoint(g2d, joints.get(i));
-			if(joints.get(i) instanceof FixedJoint)
-				drawFixedJoint(g2d, joints.get(i));
-			if(joints.get(i) instanceof BasicJoint)
-				drawBasicJoint(g2d, joints.get(i));
+				drawStandardBody(g2d, frame.getShape(i),
+					frame.getX(i), frame.getY(i), frame.getRotation(i));
 		}
-		setTranslation(g2d, aft);
-		world.getBob().draw(g2d, frameCount);
+		g2d.setTransform(aft);
+		for(int i = 0; i < frame.getJointCount(); i++)
+			drawJoint(g2d, frame, i);
 		
 		aft.setToTranslation(0, 0);
 		g2d.setTransform(aft);
 		g2d.setColor(Color.BLACK);
+		g2d.setFont(getFont());
 		java.awt.FontMetrics fm = getFontMetrics(getFont());
 		int fontBottom = fm.getHeight();
 		int timeToPrint = (int)playTime;
@@ -251,12 +544,35 @@ public  class Phys2DGamePanel extends javax.swing.JPanel
 			gameTime += "0";
 		gameTime += decimal;
 		g2d.drawString(gameTime, 0, fontBottom);
+		if(showStats)
+		{
+			String[] lines = stats.getOverlayLines();
+			for(int i = 0; i < lines.length; i++)
+				g2d.drawString(lines[i], 0, (i + 2)*fontBottom);
+		}
+		stats.paint.recordSince(start);
+		stats.frameDrawn(System.nanoTime());
+	}
+	
+	private static boolean inView(float x, float y, float w, float h,
+		float viewX, float viewY, float viewW, float viewH)
+	{
+		return x <= viewX + viewW && viewX <= x + w
+			&& y <= viewY + viewH && viewY <= y + h;
+	}
+	
+	private static boolean inView(TriggerZone zone,
+		float viewX, float viewY, float viewW, float viewH)
+	{
+		return inView(zone.getX() - zone.getWidth()/2, zone.getY() - zone.getHeight()/2,
+			zone.getWidth(), zone.getHeight(), viewX, viewY, viewW, viewH);
 	}
 	
-	public void setTranslation(Graphics2D g, AffineTransform a)
+	// Keeps bob at least MIN_CHAR_FRM_DIST from the edges of the view
+	private void updateCamera(int width, int height)
 	{
 		//account for size of character?
-		double panelWidth, panelHeight, xPos, yPos, deltaWidth, deltaHeight;
+		double xPos, yPos, deltaWidth, deltaHeight;
 		int worldWidth = world.getWidth();
 		int worldHeight = world.getHeight();
 		xPos = (double)world.getBob().getPosition().getX();
@@ -266,80 +582,83 @@ public  class Phys2DGamePanel extends javax.swing.JPanel
 		
 		if(deltaWidth < MIN_CHAR_FRM_DIST)
 			panelX = xPos - MIN_CHAR_FRM_DIST;
-		else if(deltaWidth > getSize().width - MIN_CHAR_FRM_DIST)
-			panelX = xPos + MIN_CHAR_FRM_DIST - getSize().width;
+		else if(deltaWidth > width - MIN_CHAR_FRM_DIST)
+			panelX = xPos + MIN_CHAR_FRM_DIST - width;
 		if(deltaHeight < MIN_CHAR_FRM_DIST)
 			panelY = yPos - MIN_CHAR_FRM_DIST;
-		else if(deltaHeight > getSize().height - MIN_CHAR_FRM_DIST)
-			panelY = yPos + MIN_CHAR_FRM_DIST - getSize().height;
+		else if(deltaHeight > height - MIN_CHAR_FRM_DIST)
+			panelY = yPos + MIN_CHAR_FRM_DIST - height;
 
-		if(worldWidth <= getSize().width || panelX < 0)
+		if(worldWidth <= width || panelX < 0)
 			panelX = 0;
-		else if(panelX + getSize().width > worldWidth)
-			panelX = worldWidth - getSize().width;
-		if(worldHeight < getSize().height || panelY < 0)
+		else if(panelX + width > worldWidth)
+			panelX = worldWidth - width;
+		if(worldHeight < height || panelY < 0)
 			panelY = 0;
-		else if(panelY + getSize().height > worldHeight)
-			panelY = worldHeight - getSize().height;
-		a.setToTranslation(-panelX, -panelY);
-		g.setTransform(a);
+		else if(panelY + height > worldHeight)
+			panelY = worldHeight - height;
+	}
+	
+	// Also used to fill StaticTiles, so it must not depend on the panel
+	static void drawStandardBody(Graphics2D g, Body b) {
+		drawStandardBody(g, b.getShape(), b.getPosition().getX(),
+			b.getPosition().getY(), b.getRotation());
 	}
 	
-	private void drawStandardBody(Graphics2D g, Body b)
+	// A shape centred on (x, y), turned by rotation
+	static void drawStandardBody(Graphics2D g, Shape s, float x, float y, float rotation)
 	{
-		Shape s = b.getShape();
 		if(s instanceof Box)
-			drawBox(g, b);
+			drawBox(g, (Box)s, x, y, rotation);
 		else if(s instanceof Line)
-			drawLine(g, b);
+			drawLine(g, (Line)s, x, y, rotation);
 		else if(s instanceof Circle)
-			drawCircle(g, b);
+			drawCircle(g, (Circle)s, x, y, rotation);
 		else if(s instanceof Polygon)
-			drawPoly(g, b);
+			drawPoly(g, (Polygon)s, x, y, rotation);
 		
 	}
 	
-	private void drawBox(Graphics2D g, Body b)
+	private static void drawBox(Graphics2D g, Box box, float x, float y, float rotation)
 	{		
-		Box box = (Box)b.getShape();
-		Vector2f[] pts = box.getPoints(b.getPosition(), b.getRotation());
+		Vector2f[] pts = box.getPoints(new Vector2f(x, y), rotation);
 		
 		Vector2f v1 = pts[0];
 		g.translate(v1.getX(), v1.getY());
-		g.rotate(b.getRotation());
+		g.rotate(rotation);
 		g.setColor(Color.WHITE);
 		g.fillRect(0,0,(int)box.getSize().getX(), (int)box.getSize().getY());
 		g.setColor(Color.BLACK);
 		g.drawRect(0,0,(int)box.getSize().getX(), (int)box.getSize().getY());
 	}
 	
-	private void drawLine(Graphics2D g, Body b)
+	private static void drawLine(Graphics2D g, Line line, float x, float y, float rotation)
 	{
-		Line line = (Line)b.getShape();
-		Vector2f[] verts = line.getVertices(b.getPosition(), b.getRotation());
+		Vector2f[] verts = line.getVertices(new Vector2f(x, y), rotation);
 		g.setColor(Color.BLACK);
 		g.drawLine(
 				(int) verts[0].getX(), (int) verts[0].getY(),
 				(int) verts[1].getX(), (int) verts[1].getY());
 	}
 	
-	private void drawCircle(Graphics2D g, Body b)
+	private static void drawCircle(Graphics2D g, Circle circle, float x, float y,
+		float rotation)
 	{
-		g.translate(b.getPosition().getX(), b.getPosition().getY());
-		int radius = (int)((Circle)b.getShape()).getRadius();
+		g.translate(x, y);
+		int radius = (int)circle.getRadius();
 		g.setColor(Color.WHITE);
 		g.fillOval(-radius, -radius, 2*radius, 2*radius);
 		g.setColor(Color.BLACK);
 		g.drawOval(-radius, -radius, 2*radius, 2*radius);
-		g.rotate((double)b.getRotation());
+		g.rotate((double)rotation);
 		g.drawLine(0, 0, radius, 0);
 	}
 	
-	private void drawPoly(Graphics2D g, Body b)
+	private static void drawPoly(Graphics2D g, Polygon poly, float x, float y,
+		float rotation)
 	{
 		g.setColor(Color.BLACK);
-		ROVector2f[] verts = ((Polygon)b.getShape()).getVertices(
-			b.getPosition(), b.getRotation());
+		ROVector2f[] verts = poly.getVertices(new Vector2f(x, y), rotation);
 		java.awt.Polygon polyToDraw = DrawableBody.convert(verts);
 		g.setColor(Color.WHITE);
 		g.fill(polyToDraw);
@@ -347,63 +666,34 @@ public  class Phys2DGamePanel extends javax.swing.JPanel
 		g.draw(polyToDraw);
 	}
 	
-	private void drawBasicJoint(Graphics2D g, Joint j)
+	/* Basic joints are green lines from each body to its anchor, springs
+	 * red lines through both anchors, fixed joints black between centres.
+	 */
+	private static void drawJoint(Graphics2D g, RenderSnapshot frame, int i)
 	{
-		BasicJoint joint = (BasicJoint) j;
-			
-		Body b1 = joint.getBody1();
-		Body b2 = joint.getBody2();
-		
-		Matrix2f R1 = new Matrix2f(b1.getRotation());
-		Matrix2f R2 = new Matrix2f(b2.getRotation());
-
-		ROVector2f x1 = b1.getPosition();
-		Vector2f p1 = MathUtil.mul(R1,joint.getLocalAnchor1());
-		p1.add(x1);
-
-		ROVector2f x2 = b2.getPosition();
-		Vector2f p2 = MathUtil.mul(R2,joint.getLocalAnchor2());
-		p2.add(x2);
-
-		g.setColor(Color.GREEN);
-		g.drawLine((int) x1.getX(), (int) x1.getY(), (int) p1.x, (int) p1.y);
-		g.drawLine((int) x2.getX(), (int) x2.getY(), (int) p2.x, (int) p2.y);
-		
-	}
-
-	private void drawFixedJoint(Graphics2D g, Joint j)
-	{
-		Body a = j.getBody1(), b = j.getBody2();
-		int aX = (int)a.getPosition().getX();
-		int aY = (int)a.getPosition().getY();
-		int bX = (int)b.getPosition().getX();
-		int bY = (int)b.getPosition().getY();
-		g.setColor(Color.BLACK);
-		g.drawLine(aX, aY, bX, bY);
-	}
-	
-	private void drawSpringJoint(Graphics2D g, Joint j)
-	{
-		SpringJoint joint = (SpringJoint) j;
-			
-		Body b1 = joint.getBody1();
-		Body b2 = joint.getBody2();
-
-		Matrix2f R1 = new Matrix2f(b1.getRotation());
-		Matrix2f R2 = new Matrix2f(b2.getRotation());
-
-		ROVector2f x1 = b1.getPosition();
-		Vector2f p1 = MathUtil.mul(R1,joint.getLocalAnchor1());
-		p1.add(x1);
-
-		ROVector2f x2 = b2.getPosition();
-		Vector2f p2 = MathUtil.mul(R2,joint.getLocalAnchor2());
-		p2.add(x2);
-		
-		g.setColor(Color.RED);
-		g.drawLine((int) x1.getX(), (int) x1.getY(), (int) p1.x, (int) p1.y);
-		g.drawLine((int) p1.x, (int) p1.y, (int) p2.getX(), (int) p2.getY());
-		g.drawLine((int) p2.getX(), (int) p2.getY(), (int) x2.getX(), (int) x2.getY());
+		byte type = frame.getJointType(i);
+		int x0 = (int)frame.getJointX(i, 0), y0 = (int)frame.getJointY(i, 0);
+		int x1 = (int)frame.getJointX(i, 1), y1 = (int)frame.getJointY(i, 1);
+		int x2 = (int)frame.getJointX(i, 2), y2 = (int)frame.getJointY(i, 2);
+		int x3 = (int)frame.getJointX(i, 3), y3 = (int)frame.getJointY(i, 3);
+		if(type == RenderSnapshot.BASIC_JOINT)
+		{
+			g.setColor(Color.GREEN);
+			g.drawLine(x0, y0, x1, y1);
+			g.drawLine(x3, y3, x2, y2);
+		}
+		else if(type == RenderSnapshot.SPRING_JOINT)
+		{
+			g.setColor(Color.RED);
+			g.drawLine(x0, y0, x1, y1);
+			g.drawLine(x1, y1, x2, y2);
+			g.drawLine(x2, y2, x3, y3);
+		}
+		else
+		{
+			g.setColor(Color.BLACK);
+			g.drawLine(x0, y0, x3, y3);
+		}
 	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,332 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import net.phys2d.math.*;
+import net.phys2d.raw.*;
+import net.phys2d.raw.shapes.Shape;
+
+/* Everything a frame draws, copied out of the world by the game loop after
+ * a step so the renderer never reads bodies while they are being moved.
+ * Only bodies, zones and joints in view are copied, in drawing order,
+ * along with the world's size and its background and layers, which a
+ * LevelEdit may swap out between frames. A
+ * snapshot is filled by one thread and read by another once it has been
+ * handed over through an Exchange; its arrays are reused from frame to
+ * frame, so publishing makes no garbage once they have grown.
+ */
+public class RenderSnapshot
+{
+	public static final byte BASIC_JOINT = 0;
+	public static final byte SPRING_JOINT = 1;
+	public static final byte FIXED_JOINT = 2;
+	public static final int JOINT_POINTS = 8; //four points per joint
+	private static final int INITIAL_CAPACITY = 16;
+
+	private long sequence;
+	private int worldWidth, worldHeight;
+	private ParallaxLayer background;
+	private ParallaxLayer[] layers;
+	private int layerCount;
+	private StaticTiles tiles;
+	private double cameraX, cameraY;
+	private int viewWidth, viewHeight;
+
+	private int bodyCount;
+	private Shape[] shapes; //for bodies drawn as plain shapes
+	private SpriteAtlas.Sprite[] sprites; //for bodies with images
+	private float[] x, y, rotation;
+
+	private int zoneCount;
+	private SpriteAtlas.Sprite[] zoneSprites;
+	private int[] zoneX, zoneY; //top left corners
+
+	private int jointCount;
+	private byte[] jointTypes;
+	private float[] jointPoints;
+
+	public RenderSnapshot()
+	{
+		shapes = new Shape[INITIAL_CAPACITY];
+		sprites = new SpriteAtlas.Sprite[INITIAL_CAPACITY];
+		x = new float[INITIAL_CAPACITY];
+		y = new float[INITIAL_CAPACITY];
+		rotation = new float[INITIAL_CAPACITY];
+		zoneSprites = new SpriteAtlas.Sprite[INITIAL_CAPACITY];
+		zoneX = new int[INITIAL_CAPACITY];
+		zoneY = new int[INITIAL_CAPACITY];
+		jointTypes = new byte[INITIAL_CAPACITY];
+		jointPoints = new float[INITIAL_CAPACITY*JOINT_POINTS];
+		layers = new ParallaxLayer[INITIAL_CAPACITY];
+	}
+
+	// Empties the snapshot for a new frame seen from (camX, camY)
+	public void begin(WackoWorld w, StaticTiles t, double camX, double camY,
+		int width, int height)
+	{
+		worldWidth = w.getWidth();
+		worldHeight = w.getHeight();
+		background = w.getBackgroundLayer();
+		Arrays.fill(layers, 0, layerCount, null);
+		layerCount = w.getLayers().size();
+		if(layerCount > layers.length)
+			layers = new ParallaxLayer[2*layerCount];
+		for(int i = 0; i < layerCount; i++)
+			layers[i] = w.getLayers().get(i);
+		tiles = t;
+		cameraX = camX;
+		cameraY = camY;
+		viewWidth = width;
+		viewHeight = height;
+		//drop references so old worlds can be collected
+		Arrays.fill(shapes, 0, bodyCount, null);
+		Arrays.fill(sprites, 0, bodyCount, null);
+		Arrays.fill(zoneSprites, 0, zoneCount, null);
+		bodyCount = 0;
+		zoneCount = 0;
+		jointCount = 0;
+	}
+
+	/* Copies a body's transform and, for a DrawableBody, the sprite it
+	 * shows on this frame. Drawable bodies without an image are skipped.
+	 */
+	public void addBody(Body b, int frameCount)
+	{
+		SpriteAtlas.Sprite sprite = null;
+		if(b instanceof DrawableBody)
+		{
+			sprite = ((DrawableBody)b).getSprite(frameCount);
+			if(sprite == null)
+				return;
+		}
+		if(bodyCount == x.length)
+		{
+			int size = 2*bodyCount;
+			shapes = Arrays.copyOf(shapes, size);
+			sprites = Arrays.copyOf(sprites, size);
+			x = Arrays.copyOf(x, size);
+			y = Arrays.copyOf(y, size);
+			rotation = Arrays.copyOf(rotation, size);
+		}
+		shapes[bodyCount] = sprite == null ? b.getShape() : null;
+		sprites[bodyCount] = sprite;
+		x[bodyCount] = b.getPosition().getX();
+		y[bodyCount] = b.getPosition().getY();
+		rotation[bodyCount] = b.getRotation();
+		bodyCount++;
+	}
+
+	// Zones without an image are skipped
+	public void addZone(TriggerZone zone)
+	{
+		SpriteAtlas.Sprite sprite = zone.getSprite();
+		if(sprite == null)
+			return;
+		if(zoneCount == zoneX.length)
+		{
+			int size = 2*zoneCount;
+			zoneSprites = Arrays.copyOf(zoneSprites, size);
+			zoneX = Arrays.copyOf(zoneX, size);
+			zoneY = Arrays.copyOf(zoneY, size);
+		}
+		zoneSprites[zoneCount] = sprite;
+		zoneX[zoneCount] = zone.getX() - sprite.getWidth()/2;
+		zoneY[zoneCount] = zone.getY() - sprite.getHeight()/2;
+		zoneCount++;
+	}
+
+	/* Keeps the points a joint is drawn through: each body's centre and
+	 * anchor for basic and spring joints, the two centres for fixed ones.
+	 * Other joints are skipped.
+	 */
+	public void addJoint(Joint j)
+	{
+		byte type;
+		if(j instanceof SpringJoint)
+			type = SPRING_JOINT;
+		else if(j instanceof FixedJoint)
+			type = FIXED_JOINT;
+		else if(j instanceof BasicJoint)
+			type = BASIC_JOINT;
+		else
+			return;
+		if(jointCount == jointTypes.length)
+		{
+			jointTypes = Arrays.copyOf(jointTypes, 2*jointCount);
+			jointPoints = Arrays.copyOf(jointPoints, 2*jointCount*JOINT_POINTS);
+		}
+		Body b1 = j.getBody1(), b2 = j.getBody2();
+		int p = jointCount*JOINT_POINTS;
+		jointPoints[p] = b1.getPosition().getX();
+		jointPoints[p+1] = b1.getPosition().getY();
+		jointPoints[p+6] = b2.getPosition().getX();
+		jointPoints[p+7] = b2.getPosition().getY();
+		if(type == SPRING_JOINT)
+		{
+			SpringJoint joint = (SpringJoint)j;
+			setAnchor(p+2, b1, joint.getLocalAnchor1());
+			setAnchor(p+4, b2, joint.getLocalAnchor2());
+		}
+		else if(type == BASIC_JOINT)
+		{
+			BasicJoint joint = (BasicJoint)j;
+			setAnchor(p+2, b1, joint.getLocalAnchor1());
+			setAnchor(p+4, b2, joint.getLocalAnchor2());
+		}
+		jointTypes[jointCount++] = type;
+	}
+
+	// An anchor in world space, rotated with its body
+	private void setAnchor(int p, Body b, ROVector2f local)
+	{
+		float cos = (float)Math.cos(b.getRotation());
+		float sin = (float)Math.sin(b.getRotation());
+		jointPoints[p] = b.getPosition().getX() + cos*local.getX() - sin*local.getY();
+		jointPoints[p+1] = b.getPosition().getY() + sin*local.getX() + cos*local.getY();
+	}
+
+	// Goes up each time the snapshot is published
+	public long getSequence() {
+		return sequence;
+	}
+
+	public int getWorldWidth() {
+		return worldWidth;
+	}
+
+	public int getWorldHeight() {
+		return worldHeight;
+	}
+
+	public ParallaxLayer getBackground() {
+		return background;
+	}
+
+	// Drawn over the background, in order
+	public int getLayerCount() {
+		return layerCount;
+	}
+
+	public ParallaxLayer getLayer(int i) {
+		return layers[i];
+	}
+
+	public StaticTiles getTiles() {
+		return tiles;
+	}
+
+	public double getCameraX() {
+		return cameraX;
+	}
+
+	public double getCameraY() {
+		return cameraY;
+	}
+
+	public int getViewWidth() {
+		return viewWidth;
+	}
+
+	public int getViewHeight() {
+		return viewHeight;
+	}
+
+	public int getBodyCount() {
+		return bodyCount;
+	}
+
+	// null if body i is drawn as a sprite
+	public Shape getShape(int i) {
+		return shapes[i];
+	}
+
+	// null if body i is drawn as a plain shape
+	public SpriteAtlas.Sprite getSprite(int i) {
+		return sprites[i];
+	}
+
+	public float getX(int i) {
+		return x[i];
+	}
+
+	public float getY(int i) {
+		return y[i];
+	}
+
+	public float getRotation(int i) {
+		return rotation[i];
+	}
+
+	public int getZoneCount() {
+		return zoneCount;
+	}
+
+	public SpriteAtlas.Sprite getZoneSprite(int i) {
+		return zoneSprites[i];
+	}
+
+	public int getZoneX(int i) {
+		return zoneX[i];
+	}
+
+	public int getZoneY(int i) {
+		return zoneY[i];
+	}
+
+	public int getJointCount() {
+		return jointCount;
+	}
+
+	public byte getJointType(int i) {
+		return jointTypes[i];
+	}
+
+	// Point k (0 to 3) of joint i
+	public float getJointX(int i, int k) {
+		return jointPoints[i*JOINT_POINTS + 2*k];
+	}
+
+	public float getJointY(int i, int k) {
+		return jointPoints[i*JOINT_POINTS + 2*k + 1];
+	}
+
+	/* Three snapshots passed between one writer and one reader without
+	 * locks: the writer fills its own, then swaps it for the one waiting in
+	 * the middle, and the reader swaps its own for the middle one whenever
+	 * that is newer. Each snapshot belongs to exactly one side at a time.
+	 * A frame the reader never got to is simply overwritten.
+	 */
+	public static class Exchange
+	{
+		private AtomicReference<RenderSnapshot> latest;
+		private RenderSnapshot back, front;
+		private long published;
+
+		public Exchange()
+		{
+			latest = new AtomicReference<RenderSnapshot>(new RenderSnapshot());
+			back = new RenderSnapshot();
+			front = new RenderSnapshot();
+		}
+
+		// The writer's snapshot, to fill before publish()
+		public RenderSnapshot getBack() {
+			return back;
+		}
+
+		public void publish()
+		{
+			back.sequence = ++published;
+			back = latest.getAndSet(back);
+		}
+
+		/* The reader's snapshot: the newest one published, or the one it
+		 * had last time if nothing newer has been. Its sequence is 0 until
+		 * something has been published.
+		 */
+		public RenderSnapshot getFront()
+		{
+			if(latest.get().sequence > front.sequence)
+				front = latest.getAndSet(front);
+			return front;
+		}
+	}
+}
\ No newline at end of file
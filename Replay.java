@@ -0,0 +1,38 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/* Replays recorded input logs without a display, as fast as the CPU
+ * allows, and checks that every body followed the recorded trajectory.
+ *
+ * Usage: java Replay log...
+ */
+public class Replay
+{
+	public static void main(String[] args)
+	{
+		System.setProperty("java.awt.headless", "true");
+		for(String fileName : args)
+		{
+			InputLog log;
+			try {
+				FileInputStream in = new FileInputStream(fileName);
+				log = InputLog.read(in);
+				in.close();
+			}
+			catch(IOException e) {
+				System.out.println(fileName + ": " + e.getMessage());
+				continue;
+			}
+			GameSession session =
+				new GameSession(log.getLevelFile(), log.getStartLevel());
+			long start = System.nanoTime();
+			long checksum = session.replay(log);
+			long elapsed = System.nanoTime() - start;
+			String result = checksum == log.getChecksum() ? "matches" : "DIFFERS";
+			System.out.println(fileName + ": " + log.getLength() + " steps in "
+				+ elapsed/1000000 + " ms ("
+				+ (long)(log.getLength()/(elapsed/1e9)) + " steps/s), "
+				+ "trajectory " + result);
+		}
+	}
+}
@@ -0,0 +1,172 @@
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/* Packs sprite frames, already scaled to the size they are drawn at, into
+ * a few large display-compatible pages. Drawing a frame is then a copy of
+ * a rectangle from a page, which stays on the accelerated path, instead of
+ * scaling a sub-image of a decoded strip every frame. Pages are filled
+ * shelf by shelf; a frame too big for a page gets a page of its own.
+ * Pages count against an AssetCache's budget, and once evicting images
+ * cannot make room the atlas starts over with empty pages. Sprites
+ * already handed out keep their pages.
+ */
+public class SpriteAtlas
+{
+	public static final int PAGE_SIZE = 1024;
+	private static final int PADDING = 1; //keeps filtering from bleeding between frames
+
+	private static final SpriteAtlas shared = new SpriteAtlas();
+
+	private HashMap<String, Sprite[]> framesByKey;
+	private ArrayList<BufferedImage> pages;
+	private long pageBytes;
+	private int shelfX, shelfY, shelfHeight; //free space on the last page
+	private AssetCache cache;
+
+	public SpriteAtlas() {
+		this(AssetCache.getShared());
+	}
+
+	public SpriteAtlas(AssetCache budget)
+	{
+		cache = budget;
+		framesByKey = new HashMap<String, Sprite[]>();
+		pages = new ArrayList<BufferedImage>();
+	}
+
+	public static SpriteAtlas getShared() {
+		return shared;
+	}
+
+	/* The frames scaled to width x height and packed, done once per key
+	 * and size. The key names the frames' source, e.g. their image file.
+	 */
+	public synchronized Sprite[] getFrames(String key, BufferedImage[] frames,
+		int width, int height)
+	{
+		String sizedKey = key + "@" + width + "x" + height;
+		Sprite[] sprites = framesByKey.get(sizedKey);
+		if(sprites != null)
+			return sprites;
+		sprites = new Sprite[frames.length];
+		for(int i = 0; i < frames.length; i++)
+			sprites[i] = pack(frames[i], width, height);
+		framesByKey.put(sizedKey, sprites);
+		return sprites;
+	}
+
+	public synchronized int getPageCount() {
+		return pages.size();
+	}
+
+	public synchronized long getPageBytes() {
+		return pageBytes;
+	}
+
+	private Sprite pack(BufferedImage frame, int width, int height)
+	{
+		BufferedImage page;
+		int x, y;
+		if(width + PADDING > PAGE_SIZE || height + PADDING > PAGE_SIZE)
+		{
+			//oversized frames get a page to themselves, and nothing follows
+			page = addPage(width, height);
+			x = 0;
+			y = 0;
+			shelfY = PAGE_SIZE;
+		}
+		else
+		{
+			if(pages.size() == 0 || shelfX + width > PAGE_SIZE)
+			{
+				shelfX = 0;
+				shelfY += shelfHeight;
+				shelfHeight = 0;
+			}
+			if(pages.size() == 0 || shelfY + height > PAGE_SIZE)
+			{
+				addPage(PAGE_SIZE, PAGE_SIZE);
+				shelfX = 0;
+				shelfY = 0;
+				shelfHeight = 0;
+			}
+			page = pages.get(pages.size() - 1);
+			x = shelfX;
+			y = shelfY;
+			shelfX += width + PADDING;
+			shelfHeight = Math.max(shelfHeight, height + PADDING);
+		}
+		Graphics2D g = page.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+			RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(frame, x, y, width, height, null);
+		g.dispose();
+		return new Sprite(page, x, y, width, height);
+	}
+
+	// Adds a page counted against the budget, starting over if it is full
+	private BufferedImage addPage(int width, int height)
+	{
+		BufferedImage page = createPage(width, height);
+		long bytes = AssetCache.sizeOf(page);
+		cache.addExternalBytes(bytes);
+		if(cache.getBytesUsed() > cache.getBudget() && pages.size() > 0)
+		{
+			framesByKey.clear();
+			pages.clear();
+			cache.addExternalBytes(-pageBytes);
+			pageBytes = 0;
+		}
+		pages.add(page);
+		pageBytes += bytes;
+		return page;
+	}
+
+	private static BufferedImage createPage(int width, int height)
+	{
+		if(!GraphicsEnvironment.isHeadless())
+		{
+			GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+				.getDefaultScreenDevice().getDefaultConfiguration();
+			return gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+		}
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+	}
+
+	// A frame's rectangle on an atlas page
+	public static class Sprite
+	{
+		private BufferedImage page;
+		private int x, y, width, height;
+
+		public Sprite(BufferedImage p, int sx, int sy, int w, int h)
+		{
+			page = p;
+			x = sx;
+			y = sy;
+			width = w;
+			height = h;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		// Copies the frame with its top left corner at (dx, dy)
+		public void draw(Graphics2D g, int dx, int dy)
+		{
+			g.drawImage(page, dx, dy, dx + width, dy + height,
+				x, y, x + width, y + height, null);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,157 @@
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import net.phys2d.raw.*;
+import net.phys2d.raw.shapes.AABox;
+
+/* Static level geometry drawn once into a grid of tile images, so a frame
+ * only copies the tiles in view instead of filling and stroking every
+ * static shape again. Tiles are rendered the first time they are seen.
+ * Static bodies with their own images are still drawn as sprites. The
+ * static bodies are listed when the tiles are made, so tiles can be
+ * rendered on another thread while the world steps. In a streamed world
+ * the tiles only cover the chunks that were loaded when they were made.
+ */
+public class StaticTiles
+{
+	public static final int TILE_SIZE = 256;
+
+	private WackoWorld world;
+	private int generation; //of the world's chunks, if it has any
+	private int editCount; //the world's, when the tiles were made
+	private GraphicsConfiguration config;
+	private int originX, originY; //world position of the first tile
+	private int columns, rows;
+	private BufferedImage[] tiles;
+	private boolean[] rendered;
+	private BodyList cachedBodies;
+	private float[] minX, minY, maxX, maxY; //bounds of each cached body
+
+	// config may be null, e.g. before the panel is on screen
+	public StaticTiles(WackoWorld w, GraphicsConfiguration gc)
+	{
+		world = w;
+		editCount = w.getEditCount();
+		config = gc;
+		//cover the world, plus any static geometry hanging over its edges
+		float left = 0, top = 0, right = w.getWidth(), bottom = w.getHeight();
+		WorldChunks chunks = w.getChunks();
+		if(chunks != null)
+		{
+			//only the loaded geometry, which may be a small part of the world
+			generation = chunks.getGeneration();
+			left = top = Float.MAX_VALUE;
+			right = bottom = -Float.MAX_VALUE;
+		}
+		cachedBodies = new BodyList();
+		BodyList bodies = w.getBodies();
+		for(int i = 0; i < bodies.size(); i++)
+		{
+			if(isCached(bodies.get(i)))
+				cachedBodies.add(bodies.get(i));
+		}
+		int n = cachedBodies.size();
+		minX = new float[n];
+		minY = new float[n];
+		maxX = new float[n];
+		maxY = new float[n];
+		for(int i = 0; i < n; i++)
+		{
+			Body b = cachedBodies.get(i);
+			AABox bounds = b.getShape().getBounds();
+			float cx = b.getPosition().getX() + bounds.getOffsetX();
+			float cy = b.getPosition().getY() + bounds.getOffsetY();
+			minX[i] = cx - bounds.getWidth()/2;
+			minY[i] = cy - bounds.getHeight()/2;
+			maxX[i] = cx + bounds.getWidth()/2;
+			maxY[i] = cy + bounds.getHeight()/2;
+			left = Math.min(left, minX[i] - 1);
+			top = Math.min(top, minY[i] - 1);
+			right = Math.max(right, maxX[i] + 1);
+			bottom = Math.max(bottom, maxY[i] + 1);
+		}
+		if(n == 0 && chunks != null)
+			left = top = right = bottom = 0;
+		originX = (int)Math.floor(left / TILE_SIZE) * TILE_SIZE;
+		originY = (int)Math.floor(top / TILE_SIZE) * TILE_SIZE;
+		columns = Math.max(1, (int)Math.ceil((right - originX) / TILE_SIZE));
+		rows = Math.max(1, (int)Math.ceil((bottom - originY) / TILE_SIZE));
+		tiles = new BufferedImage[columns * rows];
+		rendered = new boolean[columns * rows];
+	}
+
+	public WackoWorld getWorld() {
+		return world;
+	}
+
+	// Whether these tiles still show w's static geometry
+	public boolean isCurrent(WackoWorld w)
+	{
+		return w == world && w.getEditCount() == editCount
+			&& (w.getChunks() == null || w.getChunks().getGeneration() == generation);
+	}
+
+	// Whether b is drawn by the tiles rather than on its own
+	public static boolean isCached(Body b) {
+		return b.isStatic() && !(b instanceof DrawableBody);
+	}
+
+	/* Draws the tiles overlapping the view. g must already be translated
+	 * to world coordinates.
+	 */
+	public void draw(Graphics2D g, float viewX, float viewY, float viewW, float viewH)
+	{
+		int c0 = Math.max(0, (int)Math.floor((viewX - originX) / TILE_SIZE));
+		int r0 = Math.max(0, (int)Math.floor((viewY - originY) / TILE_SIZE));
+		int c1 = Math.min(columns - 1, (int)Math.floor((viewX + viewW - originX) / TILE_SIZE));
+		int r1 = Math.min(rows - 1, (int)Math.floor((viewY + viewH - originY) / TILE_SIZE));
+		for(int r = r0; r <= r1; r++)
+		{
+			for(int c = c0; c <= c1; c++)
+			{
+				int t = r*columns + c;
+				if(!rendered[t])
+					render(c, r);
+				if(tiles[t] != null)
+					g.drawImage(tiles[t], originX + c*TILE_SIZE, originY + r*TILE_SIZE, null);
+			}
+		}
+	}
+
+	// Tiles with no static geometry stay null and cost nothing to draw
+	private void render(int c, int r)
+	{
+		int t = r*columns + c;
+		rendered[t] = true;
+		int x = originX + c*TILE_SIZE, y = originY + r*TILE_SIZE;
+		AffineTransform origin = AffineTransform.getTranslateInstance(-x, -y);
+		Graphics2D g = null;
+		for(int i = 0; i < cachedBodies.size(); i++)
+		{
+			//a pixel of slack for outlines on the tile edge
+			if(maxX[i] <= x - 1 || x + TILE_SIZE + 1 <= minX[i]
+				|| maxY[i] <= y - 1 || y + TILE_SIZE + 1 <= minY[i])
+				continue;
+			Body b = cachedBodies.get(i);
+			if(g == null)
+			{
+				tiles[t] = createTile();
+				g = tiles[t].createGraphics();
+			}
+			//the draw methods move the transform, so start each body afresh
+			g.setTransform(origin);
+			Phys2DGamePanel.drawStandardBody(g, b);
+		}
+		if(g != null)
+			g.dispose();
+	}
+
+	private BufferedImage createTile()
+	{
+		if(config == null)
+			return new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+		return config.createCompatibleImage(TILE_SIZE, TILE_SIZE, Transparency.TRANSLUCENT);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,124 @@
+import net.phys2d.raw.*;
+import net.phys2d.raw.collide.Collider;
+import net.phys2d.raw.collide.ColliderFactory;
+import net.phys2d.raw.collide.ColliderUnavailableException;
+import net.phys2d.raw.shapes.AABox;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/* Uniform grid over a level's trigger zones. Zones never move, so they are
+ * bucketed once; a query only looks at the cells a body's bounding box
+ * covers, and only zones whose bounds overlap it get the exact shape test.
+ * A level with hundreds of zones costs about the same per step as one
+ * with a few.
+ */
+public class TriggerIndex
+{
+	public static final int DEFAULT_CELL_SIZE = 128;
+	private static final int MAX_CONTACTS = 10;
+
+	private ArrayList<TriggerZone> zones;
+	private UniformGrid grid; //zone indices
+	private int[] found;
+	private Contact[] contacts;
+	private ColliderFactory colliderFactory;
+	//zones' shapes are boxes or circles, so colliders depend on little
+	private HashMap<Class<?>, Collider> boxColliders, circleColliders;
+
+	public TriggerIndex(ArrayList<TriggerZone> z, int worldWidth, int worldHeight)
+	{
+		this(z, worldWidth, worldHeight, DEFAULT_CELL_SIZE);
+	}
+
+	public TriggerIndex(ArrayList<TriggerZone> z, int worldWidth, int worldHeight,
+		int cellSize)
+	{
+		zones = new ArrayList<TriggerZone>(z);
+		grid = new UniformGrid(worldWidth, worldHeight, cellSize);
+		int n = zones.size();
+		found = new int[n];
+		for(int i = 0; i < n; i++)
+		{
+			TriggerZone zone = zones.get(i);
+			grid.insert(i, zone.getX() - zone.getWidth()/2f, zone.getY() - zone.getHeight()/2f,
+				zone.getX() + zone.getWidth()/2f, zone.getY() + zone.getHeight()/2f);
+		}
+		contacts = new Contact[MAX_CONTACTS];
+		for(int i = 0; i < contacts.length; i++)
+			contacts[i] = new Contact();
+		colliderFactory = new ColliderFactory();
+		boxColliders = new HashMap<Class<?>, Collider>();
+		circleColliders = new HashMap<Class<?>, Collider>();
+	}
+
+	public int size() {
+		return zones.size();
+	}
+
+	/* Puts the zones whose shapes overlap b's into out, in the order they
+	 * were given to the index. Works for bodies of any shape.
+	 */
+	public void query(Body b, ArrayList<TriggerZone> out)
+	{
+		out.clear();
+		if(zones.isEmpty())
+			return;
+		grid.startQuery(zones.size());
+		AABox bounds = b.getShape().getBounds();
+		float cx = b.getPosition().getX() + bounds.getOffsetX();
+		float cy = b.getPosition().getY() + bounds.getOffsetY();
+		float minX = cx - bounds.getWidth()/2, maxX = cx + bounds.getWidth()/2;
+		float minY = cy - bounds.getHeight()/2, maxY = cy + bounds.getHeight()/2;
+		int count = 0;
+		int c0 = grid.column(minX), c1 = grid.column(maxX);
+		int r0 = grid.row(minY), r1 = grid.row(maxY);
+		for(int r = r0; r <= r1; r++)
+		{
+			for(int c = c0; c <= c1; c++)
+			{
+				int cell = grid.cell(c, r);
+				int[] members = grid.getMembers(cell);
+				for(int k = 0; k < grid.getCount(cell); k++)
+				{
+					int j = members[k];
+					if(!grid.visit(j))
+						continue;
+					TriggerZone zone = zones.get(j);
+					float halfW = zone.getWidth()/2f, halfH = zone.getHeight()/2f;
+					if(zone.getX() - halfW < maxX && minX < zone.getX() + halfW
+						&& zone.getY() - halfH < maxY && minY < zone.getY() + halfH
+						&& touches(zone, b))
+						found[count++] = j;
+				}
+			}
+		}
+		Arrays.sort(found, 0, count);
+		for(int k = 0; k < count; k++)
+			out.add(zones.get(found[k]));
+	}
+
+	// The exact test, made by the same colliders the world uses
+	private boolean touches(TriggerZone zone, Body b)
+	{
+		Collider collider = getCollider(zone, b);
+		return collider != null && collider.collide(contacts, zone.getArea(), b) > 0;
+	}
+
+	private Collider getCollider(TriggerZone zone, Body b)
+	{
+		HashMap<Class<?>, Collider> colliders =
+			zone.isRound() ? circleColliders : boxColliders;
+		Class<?> shapeClass = b.getShape().getClass();
+		Collider collider = colliders.get(shapeClass);
+		if(collider == null && !colliders.containsKey(shapeClass))
+		{
+			try {
+				collider = colliderFactory.createCollider(zone.getArea(), b);
+			}
+			catch(ColliderUnavailableException e) {}
+			colliders.put(shapeClass, collider);
+		}
+		return collider;
+	}
+}
\ No newline at end of file
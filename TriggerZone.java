@@ -0,0 +1,146 @@
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import net.phys2d.math.Vector2f;
+import net.phys2d.raw.Body;
+import net.phys2d.raw.StaticBody;
+import net.phys2d.raw.shapes.Box;
+import net.phys2d.raw.shapes.Circle;
+
+/* An area of a level that does something when bob enters it. A zone is a
+ * box centred on its position, or a circle as wide as its shorter side if
+ * it is round. Each zone keeps a static body of that shape, never added to
+ * the world, which TriggerIndex uses for the exact overlap test.
+ */
+public class TriggerZone
+{
+	public static final byte GOAL = 0;
+	public static final byte CHECKPOINT = 1;
+	public static final byte HAZARD = 2;
+	public static final byte GRAVITY_SWITCH = 3;
+	public static final String[] TYPES = {"goal", "checkpoint", "hazard", "gravity"};
+
+	private byte type;
+	private int xPosition, yPosition, width, height;
+	private boolean round;
+	private float gravityX, gravityY; //gravity switches only
+	private Body area;
+	private Image image;
+	private String imageFile;
+	private SpriteAtlas.Sprite sprite;
+
+	public TriggerZone(byte t, int x, int y, int w, int h, boolean r, String i)
+	{
+		type = t;
+		width = w;
+		height = h;
+		round = r;
+		if(round)
+			area = new StaticBody(new Circle(Math.min(w, h)/2f));
+		else
+			area = new StaticBody(new Box(w, h));
+		setX(x);
+		setY(y);
+		setImage(i);
+	}
+
+	// Returns the type code for a name in TYPES, or -1
+	public static byte parseType(String name)
+	{
+		for(byte t = 0; t < TYPES.length; t++)
+		{
+			if(TYPES[t].equals(name))
+				return t;
+		}
+		return -1;
+	}
+
+	public byte getType() {
+		return type;
+	}
+
+	public int getX() {
+		return xPosition;
+	}
+
+	public int getY() {
+		return yPosition;
+	}
+
+	public void setX(int x) {
+		xPosition = x;
+		area.setPosition(xPosition, yPosition);
+	}
+
+	public void setY(int y) {
+		yPosition = y;
+		area.setPosition(xPosition, yPosition);
+	}
+
+	public Vector2f getPosition() {
+		return new Vector2f(xPosition, yPosition);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public boolean isRound() {
+		return round;
+	}
+
+	// The body the exact overlap test is made against
+	public Body getArea() {
+		return area;
+	}
+
+	public float getGravityX() {
+		return gravityX;
+	}
+
+	public float getGravityY() {
+		return gravityY;
+	}
+
+	public void setGravity(float x, float y)
+	{
+		gravityX = x;
+		gravityY = y;
+	}
+
+	public Image getImage() {
+		return image;
+	}
+
+	// The image packed into the sprite atlas at the zone's size, or null
+	public SpriteAtlas.Sprite getSprite()
+	{
+		if(sprite == null && image instanceof BufferedImage)
+		{
+			BufferedImage[] frames = {(BufferedImage)image};
+			sprite = SpriteAtlas.getShared().getFrames(
+				imageFile, frames, image.getWidth(null), image.getHeight(null))[0];
+		}
+		return sprite;
+	}
+
+	public String getImageFile() {
+		return imageFile;
+	}
+
+	public void setImage(String imgFileName)
+	{
+		imageFile = imgFileName;
+		image = null;
+		sprite = null;
+		if(imgFileName == null || imgFileName.length() == 0)
+			return;
+		try {
+			image = AssetCache.getShared().getImage(imgFileName, width, height);
+		}
+		catch(java.io.IOException e) {}
+	}
+}
\ No newline at end of file
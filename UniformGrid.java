@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+/* Uniform grid of cells holding int indices, e.g. of bodies or zones, sized
+ * from a world's width and height. Coordinates outside the world are
+ * clamped into the edge cells, and huge worlds get coarser cells rather
+ * than eating memory. A query stamps each index it visits so one found in
+ * several cells is only looked at once. Shared by GridCollisionStrategy,
+ * BodyGrid and TriggerIndex.
+ */
+public class UniformGrid
+{
+	private static final int MAX_CELLS = 1 << 16;
+	private static final int INITIAL_CELL_CAPACITY = 4;
+
+	private int columns, rows;
+	private float cellWidth, cellHeight;
+	private int[][] cells; //indices in each cell
+	private int[] cellCounts;
+	private int[] lastQuery; //last query that visited each index
+	private int queryCount;
+
+	public UniformGrid(int worldWidth, int worldHeight, int cellSize)
+	{
+		columns = Math.max(1, (worldWidth + cellSize - 1) / cellSize);
+		rows = Math.max(1, (worldHeight + cellSize - 1) / cellSize);
+		while(columns * rows > MAX_CELLS)
+		{
+			columns = (columns + 1) / 2;
+			rows = (rows + 1) / 2;
+		}
+		cellWidth = Math.max(1, worldWidth) / (float)columns;
+		cellHeight = Math.max(1, worldHeight) / (float)rows;
+		cells = new int[columns * rows][INITIAL_CELL_CAPACITY];
+		cellCounts = new int[columns * rows];
+		lastQuery = new int[0];
+	}
+
+	public int column(float x)
+	{
+		int c = (int)Math.floor(x / cellWidth);
+		return Math.min(columns - 1, Math.max(0, c));
+	}
+
+	public int row(float y)
+	{
+		int r = (int)Math.floor(y / cellHeight);
+		return Math.min(rows - 1, Math.max(0, r));
+	}
+
+	public int cell(int column, int row) {
+		return row*columns + column;
+	}
+
+	// Empties every cell
+	public void clear() {
+		Arrays.fill(cellCounts, 0);
+	}
+
+	public void insert(int cell, int index)
+	{
+		int count = cellCounts[cell];
+		if(count == cells[cell].length)
+			cells[cell] = Arrays.copyOf(cells[cell], 2*count);
+		cells[cell][count] = index;
+		cellCounts[cell] = count + 1;
+	}
+
+	// Adds index to every cell the rectangle covers
+	public void insert(int index, float minX, float minY, float maxX, float maxY)
+	{
+		int c0 = column(minX), c1 = column(maxX);
+		int r0 = row(minY), r1 = row(maxY);
+		for(int r = r0; r <= r1; r++)
+			for(int c = c0; c <= c1; c++)
+				insert(cell(c, r), index);
+	}
+
+	public void remove(int cell, int index)
+	{
+		int[] members = cells[cell];
+		int count = cellCounts[cell];
+		for(int k = 0; k < count; k++)
+		{
+			if(members[k] == index)
+			{
+				members[k] = members[count - 1];
+				cellCounts[cell] = count - 1;
+				return;
+			}
+		}
+	}
+
+	// The first getCount(cell) entries are the cell's indices
+	public int[] getMembers(int cell) {
+		return cells[cell];
+	}
+
+	public int getCount(int cell) {
+		return cellCounts[cell];
+	}
+
+	/* Starts a query over indices below n; until the next one, visit()
+	 * is true only the first time it is called for each index.
+	 */
+	public void startQuery(int n)
+	{
+		if(lastQuery.length < n)
+			lastQuery = Arrays.copyOf(lastQuery, Math.max(16, 2*n));
+		if(queryCount == Integer.MAX_VALUE)
+		{
+			Arrays.fill(lastQuery, 0);
+			queryCount = 0;
+		}
+		queryCount++;
+	}
+
+	public boolean visit(int index)
+	{
+		if(lastQuery[index] == queryCount)
+			return false;
+		lastQuery[index] = queryCount;
+		return true;
+	}
+}
\ No newline at end of file
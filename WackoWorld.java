@@ -2,45 +2,110 @@ import net.phys2d.math.*;
 import net.phys2d.raw.*;
 import net.phys2d.raw.shapes.*;
 import net.phys2d.raw.strategies.BruteCollisionStrategy;
+import net.phys2d.raw.strategies.QuadSpaceStrategy;
 
 import java.awt.Image;
 import java.util.ArrayList;
-import java.net.URL;
+import java.util.HashMap;
 
 public class WackoWorld extends World
 {
 	public static final int DEFAULT_WORLD_WIDTH = 600;
 	public static final int DEFAULT_WORLD_HEIGHT = 800;
+	public static final String DEFAULT_BROADPHASE = "auto";
+	
+	private static final int GRID_BODY_THRESHOLD = 40; //auto picks grid above this
+	private static final int QUAD_MAX_IN_SPACE = 10;
+	private static final int QUAD_MAX_LEVELS = 6;
+	private static final float SLEEP_LINEAR_TOLERANCE = 0.1f;
+	private static final float SLEEP_ANGULAR_TOLERANCE = 0.05f;
+	private static final float TIME_TO_SLEEP = 1f; //seconds an island must rest
+	/* Carried by static and sleeping bodies. phys2d never resolves a pair
+	 * whose bitmasks overlap, so sleepers only collide with awake bodies.
+	 */
+	private static final long RESTING_BIT = 1L << 62;
 	
 	private Gravity currentG;
-	private int worldWidth, worldHeight;
-	private Image background;
+	private float antigravityX, antigravityY;
+	private int worldWidth, worldHeight, iterations;
+	private ParallaxLayer background;
+	private ArrayList<ParallaxLayer> layers; //drawn over the background, in order
+	private String backgroundFile, broadphase;
 	private CharBody bob;
 	private ArrayList<Goal> goals;
-	private boolean isComplete;
+	private ArrayList<TriggerZone> triggers; //goals too, in the order added
+	private TriggerIndex triggerIndex;
+	private ArrayList<TriggerZone> touchedZones, lastTouchedZones; //bob's
+	private TriggerZone checkpoint; //last one bob reached
+	private boolean isComplete, isBobHurt;
+	private LevelSnapshot initialState;
+	private int editCount; //edits applied while playing
+	private int chunkSize; //0 if the level is not streamed
+	private WorldChunks chunks;
+	
+	private BodyList awakeBodies;
+	private BodyGrid bodyGrid; //bounding boxes, for finding what is on screen
+	private ContactStream contacts;
+	private HashMap<Body, Integer> bodyIndex;
+	private boolean bodiesChanged;
+	private float[] restTime; //how long each body has been still
+	private int[] islandParent; //union-find over contacts, rebuilt each step
+	private int[] sleepIsland; //island a sleeping body was put to sleep with
+	private float[] islandRest;
+	private boolean[] islandHasBob;
 
 	public WackoWorld(float gX, float gY, int wW, int wH, int iter, 
 		float antiGX, float antiGY, String bgFile)
 	{
 		super(new Vector2f(0, 0), iter, new BruteCollisionStrategy());
+		iterations = iter;
+		broadphase = "brute";
+		awakeBodies = new BodyList();
+		bodyIndex = new HashMap<Body, Integer>();
+		contacts = new ContactStream();
 		setGravity(gX, gY);
 		setAntigravity(antiGX, antiGY);
 		setWidth(wW);
 		setHeight(wH);
 		goals = new ArrayList<Goal>();
+		triggers = new ArrayList<TriggerZone>();
+		touchedZones = new ArrayList<TriggerZone>();
+		lastTouchedZones = new ArrayList<TriggerZone>();
+		layers = new ArrayList<ParallaxLayer>();
 		setBackground(bgFile);
 	}
 
 	public void setGravity(float x, float y)
 	{
-		remove(currentG);
-		currentG = new Gravity(x,y);
-		add(currentG);
+		if(currentG == null)
+			currentG = new Gravity(x, y);
+		else
+			currentG.set(x, y);
+		bodiesChanged = true;
+	}
+	
+	public Gravity getCurrentGravity() {
+		return currentG;
 	}
 	
 	public void setAntigravity(float x, float y)
 	{
 		super.setGravity(x, y);
+		antigravityX = x;
+		antigravityY = y;
+		bodiesChanged = true;
+	}
+	
+	public float getAntigravityX() {
+		return antigravityX;
+	}
+	
+	public float getAntigravityY() {
+		return antigravityY;
+	}
+	
+	public int getIterations() {
+		return iterations;
 	}
 
 	public void add(Body body)
@@ -52,10 +117,77 @@ public class WackoWorld extends World
 		}
 		super.add(body);
 		body.setGravityEffected(false);
+		bodiesChanged = true;
+	}
+	
+	public void remove(Body body)
+	{
+		super.remove(body);
+		body.removeBit(RESTING_BIT);
+		bodiesChanged = true;
 	}
 	
 	public void add(Goal g) {
-		goals.add(g);
+		add((TriggerZone)g);
+	}
+	
+	// Goals are reached in the order they are added
+	public void add(TriggerZone zone)
+	{
+		if(zone instanceof Goal)
+			goals.add((Goal)zone);
+		triggers.add(zone);
+		triggerIndex = null;
+	}
+	
+	/* Chooses the broadphase: "brute", "quad", "grid" or "auto". Auto looks
+	 * at how many bodies have been added so far, so call it once the level
+	 * is populated.
+	 */
+	public void setBroadphase(String type)
+	{
+		broadphase = type;
+		if(!type.equals("brute") && !type.equals("quad") && !type.equals("grid"))
+			type = getBodies().size() < GRID_BODY_THRESHOLD ? "brute" : "grid";
+		if(type.equals("quad"))
+			setCollisionStrategy(
+				new QuadSpaceStrategy(QUAD_MAX_IN_SPACE, QUAD_MAX_LEVELS));
+		else if(type.equals("grid"))
+			setCollisionStrategy(
+				new GridCollisionStrategy(worldWidth, worldHeight));
+		else
+			setCollisionStrategy(new BruteCollisionStrategy());
+	}
+	
+	// The broadphase type the level asked for, before "auto" is resolved
+	public String getBroadphase() {
+		return broadphase;
+	}
+	
+	// Size of the chunks enableChunks() streams by, or 0 for none
+	public void setChunkSize(int size) {
+		chunkSize = size;
+	}
+	
+	public int getChunkSize() {
+		return chunkSize;
+	}
+	
+	/* Starts streaming bodies in and out by chunk around bob (see
+	 * WorldChunks) if a chunk size has been set. Call once the level is
+	 * populated, before saveInitialState().
+	 */
+	public void enableChunks()
+	{
+		if(chunkSize <= 0 || bob == null)
+			return;
+		chunks = new WorldChunks(this, chunkSize);
+		chunks.update(this);
+	}
+	
+	// null unless enableChunks() has started streaming
+	public WorldChunks getChunks() {
+		return chunks;
 	}
 	
 	public int getWidth() {
@@ -66,12 +198,20 @@ public class WackoWorld extends World
 		return worldHeight;
 	}
 	
-	public void setWidth(int w) {
+	public void setWidth(int w)
+	{
 		worldWidth = w;
+		bodyGrid = null;
+		triggerIndex = null;
+		bodiesChanged = true;
 	}
 	
-	public void setHeight(int h) {
+	public void setHeight(int h)
+	{
 		worldHeight = h;
+		bodyGrid = null;
+		triggerIndex = null;
+		bodiesChanged = true;
 	}
 	
 	public CharBody getBob() {
@@ -86,29 +226,51 @@ public class WackoWorld extends World
 		return goals;
 	}
 
-	// Precondition: bob is NOT a line (circle, box, or polygon)
-	// and there are still goals
-	private boolean wasCurrentGoalHit()
+	// Every zone in the level, goals included
+	public ArrayList<TriggerZone> getTriggers() {
+		return triggers;
+	}
+	
+	public TriggerIndex getTriggerIndex()
 	{
-		Goal goal = goals.get(0);
-		Vector2f dist = MathUtil.sub(bob.getPosition(), goal.getPosition());
-		float goalSize = Math.min(goal.getWidth(), goal.getHeight());
-		ROVector2f bobSize = ((Box)bob.getShape()).getSize();
-		float charSize = Math.min(bobSize.getX(), bobSize.getY());
-		return dist.length() < (goalSize + charSize)/2;
+		if(triggerIndex == null)
+			triggerIndex = new TriggerIndex(triggers, worldWidth, worldHeight);
+		return triggerIndex;
 	}
 
-	// Precondition: There are still goals
-	public void updateGoals()
+	/* Finds the zones bob overlaps through the trigger index and acts on
+	 * them. Only the current goal counts, hazards count while bob is in
+	 * them and the rest fire once as bob enters.
+	 */
+	public void updateTriggers()
 	{
-		if(goals.size() == 0)
-			return;
-		else if(!isComplete && wasCurrentGoalHit())
+		ArrayList<TriggerZone> last = lastTouchedZones;
+		lastTouchedZones = touchedZones;
+		touchedZones = last;
+		getTriggerIndex().query(bob, touchedZones);
+		isBobHurt = false;
+		for(int i = 0; i < touchedZones.size(); i++)
 		{
-			if(goals.size() == 1)
-				isComplete = true;
-			else
-				goals.remove(0);
+			TriggerZone zone = touchedZones.get(i);
+			byte type = zone.getType();
+			if(type == TriggerZone.GOAL)
+			{
+				if(!isComplete && goals.size() > 0 && zone == goals.get(0))
+				{
+					if(goals.size() == 1)
+						isComplete = true;
+					else
+						goals.remove(0);
+				}
+			}
+			else if(type == TriggerZone.HAZARD)
+				isBobHurt = true;
+			else if(lastTouchedZones.contains(zone))
+				continue;
+			else if(type == TriggerZone.CHECKPOINT)
+				checkpoint = zone;
+			else if(type == TriggerZone.GRAVITY_SWITCH)
+				setGravity(zone.getGravityX(), zone.getGravityY());
 		}
 	}
 	
@@ -116,25 +278,368 @@ public class WackoWorld extends World
 		return isComplete;
 	}
 	
-	public void setBackground(String bgFileName)
+	// Whether bob was in a hazard zone last step
+	public boolean isBobHurt() {
+		return isBobHurt;
+	}
+	
+	public TriggerZone getCheckpoint() {
+		return checkpoint;
+	}
+	
+	/* Puts bob back at rest on the last checkpoint reached. Returns false
+	 * if there is none yet.
+	 */
+	public boolean respawnBob()
+	{
+		if(checkpoint == null)
+			return false;
+		clearArbiters(bob);
+		stopBody(bob);
+		bob.setPosition(checkpoint.getX(), checkpoint.getY());
+		bob.setRotation(0);
+		bob.reset();
+		isBobHurt = false;
+		return true;
+	}
+	
+	// Remembers the current state as the one reset() goes back to
+	public void saveInitialState() {
+		initialState = new LevelSnapshot(this);
+	}
+	
+	public LevelSnapshot getInitialState() {
+		return initialState;
+	}
+	
+	// Makes reset() go back to a state saved elsewhere, e.g. by a LevelEdit
+	public void setInitialState(LevelSnapshot state) {
+		initialState = state;
+	}
+	
+	// How many goals have been reached since the level started
+	public int getGoalsReached() {
+		return initialState == null ? 0 : initialState.getGoals().size() - goals.size();
+	}
+	
+	/* Swaps in an edited level's zones, with the first reached goals
+	 * counted as reached again as long as there are more after them. The
+	 * checkpoint bob reached carries over if an edited zone is the same
+	 * checkpoint in the same place; otherwise there is none.
+	 */
+	public void replaceTriggers(ArrayList<TriggerZone> zones, int reached,
+		TriggerZone reachedCheckpoint)
 	{
-		try {
-			URL imgURL = getClass().getResource(bgFileName);
-			background = javax.imageio.ImageIO.read(imgURL);
+		goals.clear();
+		triggers.clear();
+		checkpoint = null;
+		for(TriggerZone zone : zones)
+		{
+			add(zone);
+			if(reachedCheckpoint != null && zone.getType() == TriggerZone.CHECKPOINT
+				&& zone.getX() == reachedCheckpoint.getX()
+				&& zone.getY() == reachedCheckpoint.getY()
+				&& zone.getWidth() == reachedCheckpoint.getWidth()
+				&& zone.getHeight() == reachedCheckpoint.getHeight()
+				&& zone.isRound() == reachedCheckpoint.isRound())
+				checkpoint = zone;
 		}
-		catch(java.io.IOException e) {}
+		for(int i = 0; i < reached && goals.size() > 1; i++)
+			goals.remove(0);
+		touchedZones.clear();
+		lastTouchedZones.clear();
+	}
+	
+	// Goes up whenever a LevelEdit changes the level while it is played
+	public int getEditCount() {
+		return editCount;
+	}
+	
+	public void markEdited()
+	{
+		editCount++;
+		bodiesChanged = true;
+	}
+	
+	/* Puts the level back the way saveInitialState() found it without
+	 * rebuilding it. Returns false if no state was saved.
+	 */
+	public boolean reset()
+	{
+		if(initialState == null)
+			return false;
+		//streamed bodies are not in the snapshot; the chunks put them back
+		if(chunks != null)
+			chunks.reset(this);
+		initialState.restore(this);
+		if(chunks != null)
+			chunks.update(this);
+		isComplete = false;
+		isBobHurt = false;
+		checkpoint = null;
+		touchedZones.clear();
+		lastTouchedZones.clear();
+		bodiesChanged = true;
+		contacts.clear(bodies.size());
+		return true;
+	}
+	
+	public boolean isBobOutOfBounds()
+	{
+		float bobX = bob.getPosition().getX();
+		float bobY = bob.getPosition().getY();
+		float halfBobWidth = bob.getWidth()/2;
+		float halfBobHeight = bob.getHeight()/2;
+		return bobX-halfBobWidth > worldWidth || bobX+halfBobWidth < 0
+			|| bobY-halfBobHeight > worldHeight || bobY+halfBobHeight < 0;
+	}
+	
+	// The background is stretched to scroll across the world once
+	public void setBackground(String bgFileName)
+	{
+		backgroundFile = bgFileName;
+		background = new ParallaxLayer(
+			bgFileName, ParallaxLayer.DEFAULT_SCROLL_FACTOR, false);
 	}
 	
 	public Image getBackground() {
+		return background.getImage();
+	}
+	
+	public ParallaxLayer getBackgroundLayer() {
 		return background;
 	}
+	
+	public void addLayer(ParallaxLayer layer) {
+		layers.add(layer);
+	}
+	
+	public ArrayList<ParallaxLayer> getLayers() {
+		return layers;
+	}
+
+	public void setLayers(ArrayList<ParallaxLayer> l) {
+		layers = l;
+	}
+	
+	public String getBackgroundFile() {
+		return backgroundFile;
+	}
 
 	public void step(float dt)
 	{
+		long start = System.nanoTime();
+		if(chunks != null)
+			chunks.update(this);
 		bob.update();
-		if(goals.size() > 0)
-			updateGoals();
+		if(triggers.size() > 0)
+			updateTriggers();
+		//gravity goes to every awake body in one pass instead of through
+		//a ForceSource call per body
+		currentG.apply(getActiveBodies(), dt);
 		super.step(dt);
+		updateSleeping(dt);
+		//sleeping and static bodies stay where they were indexed
+		for(int i = 0; i < bodies.size(); i++)
+		{
+			Body b = bodies.get(i);
+			if((b.getBitmask() & RESTING_BIT) == 0)
+				bodyGrid.update(i, b);
+		}
+		PerfStats.getShared().step.recordSince(start);
+	}
+	
+	/* Puts the bodies whose bounding boxes overlap the rectangle into out,
+	 * in the order getBodies() lists them.
+	 */
+	public void getBodiesIn(float x, float y, float w, float h, BodyList out)
+	{
+		if(bodiesChanged)
+			resetSleeping();
+		bodyGrid.query(bodies, x, y, w, h, out);
+	}
+	
+	// Only awake bodies are integrated by World.step
+	protected BodyList getActiveBodies()
+	{
+		if(bodiesChanged)
+			resetSleeping();
+		return awakeBodies;
+	}
+	
+	/* Publishes the new contacts to the contact stream, then anything that
+	 * touched a sleeping body this step wakes its island. Publishing first
+	 * lets the stream tell the woken pairs were asleep, not apart.
+	 */
+	public void collide(float dt)
+	{
+		super.collide(dt);
+		contacts.update(arbiters, bodyIndex, RESTING_BIT);
+		for(int i = 0; i < arbiters.size(); i++)
+		{
+			Arbiter a = arbiters.get(i);
+			if(isSleeping(a.getBody1()))
+				wakeIsland(a.getBody1());
+			if(isSleeping(a.getBody2()))
+				wakeIsland(a.getBody2());
+		}
+	}
+	
+	public ContactStream getContactStream() {
+		return contacts;
+	}
+	
+	// Whether b was pushed up by something it touched last step
+	public boolean isOnGround(Body b)
+	{
+		if(bodiesChanged)
+			resetSleeping();
+		Integer i = bodyIndex.get(b);
+		return i != null && contacts.isOnGround(i);
+	}
+	
+	public boolean isSleeping(Body b) {
+		return !b.isStatic() && (b.getBitmask() & RESTING_BIT) != 0;
+	}
+	
+	public int getAwakeCount() {
+		return awakeBodies.size();
+	}
+	
+	// Wakes everything, e.g. after bodies are added or gravity changes
+	private void resetSleeping()
+	{
+		int n = bodies.size();
+		restTime = new float[n];
+		islandParent = new int[n];
+		sleepIsland = new int[n];
+		islandRest = new float[n];
+		islandHasBob = new boolean[n];
+		//contacts carry on across the change, by body
+		contacts.reindex(bodies, bodyIndex);
+		bodyIndex.clear();
+		awakeBodies.clear();
+		for(int i = 0; i < n; i++)
+		{
+			Body b = bodies.get(i);
+			bodyIndex.put(b, i);
+			if(b.isStatic())
+				b.addBit(RESTING_BIT);
+			else
+			{
+				b.removeBit(RESTING_BIT);
+				awakeBodies.add(b);
+			}
+		}
+		if(bodyGrid == null)
+			bodyGrid = new BodyGrid(worldWidth, worldHeight);
+		bodyGrid.rebuild(bodies);
+		bodiesChanged = false;
+	}
+	
+	/* Groups awake bodies into islands through their contacts and joints,
+	 * and puts an island to sleep once every body in it has been still for
+	 * TIME_TO_SLEEP. Islands touching bob never sleep.
+	 */
+	private void updateSleeping(float dt)
+	{
+		if(bodiesChanged)
+			resetSleeping();
+		int n = bodies.size();
+		for(int i = 0; i < n; i++)
+		{
+			islandParent[i] = i;
+			islandRest[i] = Float.MAX_VALUE;
+			islandHasBob[i] = false;
+			//a force added to a sleeper wakes it for the next step
+			Body b = bodies.get(i);
+			if(isSleeping(b) && (b.getForce().getX() != 0 || b.getForce().getY() != 0))
+				wakeIsland(b);
+		}
+		for(int i = 0; i < arbiters.size(); i++)
+			join(arbiters.get(i).getBody1(), arbiters.get(i).getBody2());
+		JointList joints = getJoints();
+		for(int i = 0; i < joints.size(); i++)
+			join(joints.get(i).getBody1(), joints.get(i).getBody2());
+		
+		for(int i = 0; i < n; i++)
+		{
+			Body b = bodies.get(i);
+			if((b.getBitmask() & RESTING_BIT) != 0)
+				continue;
+			float vx = b.getVelocity().getX(), vy = b.getVelocity().getY();
+			if(vx*vx + vy*vy > SLEEP_LINEAR_TOLERANCE*SLEEP_LINEAR_TOLERANCE
+				|| Math.abs(b.getAngularVelocity()) > SLEEP_ANGULAR_TOLERANCE)
+				restTime[i] = 0;
+			else
+				restTime[i] += dt;
+			int root = findIsland(i);
+			islandRest[root] = Math.min(islandRest[root], restTime[i]);
+			if(b == bob)
+				islandHasBob[root] = true;
+		}
+		
+		awakeBodies.clear();
+		for(int i = 0; i < n; i++)
+		{
+			Body b = bodies.get(i);
+			if((b.getBitmask() & RESTING_BIT) != 0)
+				continue;
+			int root = findIsland(i);
+			if(!islandHasBob[root] && islandRest[root] >= TIME_TO_SLEEP)
+			{
+				b.addBit(RESTING_BIT);
+				sleepIsland[i] = root;
+				stopBody(b);
+				clearArbiters(b);
+			}
+			else
+				awakeBodies.add(b);
+		}
+	}
+	
+	private void wakeIsland(Body sleeper)
+	{
+		int island = sleepIsland[bodyIndex.get(sleeper)];
+		for(int i = 0; i < bodies.size(); i++)
+		{
+			Body b = bodies.get(i);
+			if(isSleeping(b) && sleepIsland[i] == island)
+			{
+				b.removeBit(RESTING_BIT);
+				//wake from rest, whatever the solver left behind
+				stopBody(b);
+				restTime[i] = 0;
+				awakeBodies.add(b);
+			}
+		}
+	}
+	
+	private static void stopBody(Body b)
+	{
+		ROVector2f v = b.getVelocity();
+		b.adjustVelocity(new Vector2f(-v.getX(), -v.getY()));
+		b.adjustAngularVelocity(-b.getAngularVelocity());
+	}
+	
+	private void join(Body a, Body b)
+	{
+		if(a.isStatic() || b.isStatic())
+			return;
+		Integer i = bodyIndex.get(a), j = bodyIndex.get(b);
+		if(i == null || j == null)
+			return;
+		islandParent[findIsland(i)] = findIsland(j);
+	}
+	
+	private int findIsland(int i)
+	{
+		while(islandParent[i] != i)
+		{
+			islandParent[i] = islandParent[islandParent[i]];
+			i = islandParent[i];
+		}
+		return i;
 	}
 
 }
\ No newline at end of file
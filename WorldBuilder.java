@@ -4,11 +4,21 @@
  * @source http://www.vogella.de/articles/JavaXML/article.html
  */
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.net.URL;
 import java.awt.Image;
 import javax.imageio.ImageIO;
@@ -27,20 +37,79 @@ import net.phys2d.raw.shapes.*;
 
 public class WorldBuilder {
 
-	private static final DynamicShape DEFAULT_SHAPE = new Circle(0);
-	private static final float DEFAULT_MASS = 0f;
+	static final DynamicShape DEFAULT_SHAPE = new Circle(0);
+	static final float DEFAULT_MASS = 0f;
+	private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+	
+	// Each level file's <world> elements, parsed once into lists of events
+	private static HashMap<String, ArrayList<WorldSource>> levelIndex =
+		new HashMap<String, ArrayList<WorldSource>>();
+	// Compiled level files (see LevelCompiler), mapped once each
+	private static HashMap<String, CompiledLevels> compiledIndex =
+		new HashMap<String, CompiledLevels>();
 
-	@SuppressWarnings({ "unchecked", "null" })
+	// Builds from a compiled file if given one, otherwise from xml
 	public static WackoWorld buildWorld(String file, int currentLevel)
+	{
+		return buildWorld(file, currentLevel, true);
+	}
+	
+	/* As above; if streamed is false a level with a chunk size keeps all
+	 * its bodies in the world instead of streaming them by chunk.
+	 */
+	public static WackoWorld buildWorld(String file, int currentLevel,
+		boolean streamed)
+	{
+		long start = System.nanoTime();
+		WackoWorld w = null;
+		if(file.endsWith(LevelCompiler.EXTENSION))
+		{
+			CompiledLevels compiled = getCompiledLevels(file);
+			if(compiled != null)
+				w = compiled.build(currentLevel, streamed);
+		}
+		else
+			w = parseWorld(file, currentLevel, streamed);
+		if(w != null)
+			PerfStats.getShared().levelLoad.recordSince(start);
+		return w;
+	}
+	
+	private static WackoWorld parseWorld(String file, int currentLevel,
+		boolean streamed)
 	{
 		try {
-			// First create a new XMLInputFactory
-			XMLInputFactory inputFactory = XMLInputFactory.newInstance();
-			// Setup a new eventReader
-			InputStream in = Class.forName("WorldBuilder").getResourceAsStream(file);
-			XMLEventReader eventReader = inputFactory.createXMLEventReader(in);
+			// Only this level's events are read, not the whole file
+			ArrayList<WorldSource> levels = getLevels(file);
+			if(currentLevel < 0 || currentLevel >= levels.size())
+				return null;
+			return build(levels.get(currentLevel), streamed);
+		}
+		catch (XMLStreamException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	/* Builds a level from its <world> as cut out of the file. Unless its
+	 * bodies are streamed, each one's element is kept in the initial state
+	 * so a LevelEdit can tell which bodies an edit left alone.
+	 */
+	static WackoWorld build(WorldSource source, boolean streamed)
+	{
+		WackoWorld w = build(source.getEvents(), streamed);
+		if(w != null && w.getChunks() == null)
+			w.getInitialState().setSources(source.getBodySources());
+		return w;
+	}
+	
+	@SuppressWarnings({ "unchecked", "null" })
+	static WackoWorld build(ArrayList<XMLEvent> events, boolean streamed)
+	{
+		try {
+			XMLEventReader eventReader = new ListEventReader(events);
 			WackoWorld w = null;
-			int levelIndex = 0;
+			String broadphase = WackoWorld.DEFAULT_BROADPHASE;
 			
 			// Read the XML document
 			while (eventReader.hasNext())
@@ -54,21 +123,7 @@ public class WorldBuilder {
 					// If we have a item element we create a new item
 					if (localPart.equals("world"))
 					{
-						if(levelIndex != currentLevel)
-						{
-							levelIndex++;
-							while(eventReader.hasNext())
-							{
-								event = eventReader.nextEvent();
-								if (event.isEndElement()) {
-									EndElement endElement = event.asEndElement();
-									if (endElement.getName().getLocalPart().equals("world"))
-										break;
-								}
-							}
-							continue;
-						}
-						int wW = 0, wH = 0, iter = 1;
+						int wW = 0, wH = 0, iter = 1, chunkSize = 0;
 						float gX = 0f, gY = 0f, antiGX = 0f, antiGY = 0f;
 						String bgFileName = "";
 						// We read the attributes from this tag and add the date
@@ -95,9 +150,14 @@ public class WorldBuilder {
 								antiGX = Float.parseFloat(attValue);
 							if (attName.equals("background"))
 								bgFileName = attValue;
+							if (attName.equals("broadphase"))
+								broadphase = attValue;
+							if (attName.equals("chunkSize"))
+								chunkSize = Integer.parseInt(attValue);
 						}
 						w = new WackoWorld(
 							gX, gY, wW, wH, iter, antiGX, antiGY, bgFileName);
+						w.setChunkSize(chunkSize);
 					}
 					else if (localPart.equals("body"))
 					{
@@ -118,21 +178,613 @@ public class WorldBuilder {
 						Goal g = buildGoal(eventReader);
 						w.add(g);
 					}
+					else if (localPart.equals("trigger"))
+						w.add(buildTrigger(startElement, eventReader));
+					else if (localPart.equals("layer"))
+						w.addLayer(buildLayer(startElement));
 				}
 				// If we reach the end of an item element we add it to the list
 				if (event.isEndElement()) {
 					EndElement endElement = event.asEndElement();
 					if (endElement.getName().getLocalPart().equals("world"))
+					{
+						w.setBroadphase(broadphase);
+						if(streamed)
+							w.enableChunks();
+						w.saveInitialState();
 						return w;
+					}
 				}
 			}
 		}
-		catch (ClassNotFoundException e) {}
 		catch (XMLStreamException e) {
 			e.printStackTrace();
 		}
 		return null;
 	}
+	
+	public static int getLevelCount(String file)
+	{
+		if(file.endsWith(LevelCompiler.EXTENSION))
+		{
+			CompiledLevels compiled = getCompiledLevels(file);
+			return compiled == null ? 0 : compiled.getLevelCount();
+		}
+		try {
+			return getLevels(file).size();
+		}
+		catch (XMLStreamException e) {
+			e.printStackTrace();
+		}
+		return 0;
+	}
+	
+	/* Splits a level file into one event list per <world> the first time it
+	 * is asked for, so later loads skip straight to the level they need.
+	 * Each <world> is cut out of the file's text and parsed on its own.
+	 */
+	private static synchronized ArrayList<WorldSource> getLevels(String file)
+		throws XMLStreamException
+	{
+		ArrayList<WorldSource> levels = levelIndex.get(file);
+		if(levels != null)
+			return levels;
+		levels = new ArrayList<WorldSource>();
+		InputStream in = WorldBuilder.class.getResourceAsStream(file);
+		if(in == null)
+			return levels;
+		try {
+			for(String text : splitWorlds(readText(in)))
+				levels.add(new WorldSource(text, null));
+		}
+		catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+		levelIndex.put(file, levels);
+		return levels;
+	}
+	
+	// A level's <world> as last read, or null if the file has no such level
+	static WorldSource getWorldSource(String file, int level)
+		throws XMLStreamException
+	{
+		ArrayList<WorldSource> levels = getLevels(file);
+		return level >= 0 && level < levels.size() ? levels.get(level) : null;
+	}
+	
+	// Reads a whole level file in the encoding its declaration names
+	private static String readText(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		try {
+			for(int n = in.read(buf); n != -1; n = in.read(buf))
+				bytes.write(buf, 0, n);
+		}
+		finally {
+			in.close();
+		}
+		byte[] data = bytes.toByteArray();
+		String head = new String(data, 0, Math.min(data.length, 200), "ISO-8859-1");
+		String encoding = "UTF-8";
+		int at = head.startsWith("<?xml") ? head.indexOf("encoding=") : -1;
+		if(at >= 0 && at + 10 < head.length())
+		{
+			char quote = head.charAt(at + 9);
+			int end = head.indexOf(quote, at + 10);
+			if(end > 0)
+				encoding = head.substring(at + 10, end);
+		}
+		return new String(data, encoding);
+	}
+	
+	/* Cuts each <world> element out of a level file's text, skipping
+	 * comments. Throws if the last one is cut off, as when a file is read
+	 * while it is being saved.
+	 */
+	private static ArrayList<String> splitWorlds(String text)
+		throws XMLStreamException
+	{
+		ArrayList<String> worlds = new ArrayList<String>();
+		int start = -1;
+		for(int i = text.indexOf('<'); i >= 0; i = text.indexOf('<', i + 1))
+		{
+			if(text.startsWith("<!--", i))
+			{
+				i = text.indexOf("-->", i);
+				if(i < 0)
+					break;
+			}
+			else if(start < 0 && text.startsWith("<world", i)
+				&& i + 6 < text.length() && isNameEnd(text.charAt(i + 6)))
+			{
+				int end = text.indexOf('>', i);
+				if(end < 0)
+					break;
+				if(text.charAt(end - 1) == '/')
+					worlds.add(text.substring(i, end + 1));
+				else
+					start = i;
+			}
+			else if(start >= 0 && text.startsWith("</world", i))
+			{
+				int end = text.indexOf('>', i);
+				if(end < 0)
+					break;
+				worlds.add(text.substring(start, end + 1));
+				start = -1;
+			}
+		}
+		if(start >= 0)
+			throw new XMLStreamException("Unterminated <world>");
+		return worlds;
+	}
+	
+	private static boolean isNameEnd(char c) {
+		return c == '>' || c == '/' || Character.isWhitespace(c);
+	}
+	
+	// The events of one element cut out of a level file
+	private static ArrayList<XMLEvent> parseEvents(String source)
+		throws XMLStreamException
+	{
+		ArrayList<XMLEvent> events = new ArrayList<XMLEvent>();
+		XMLEventReader eventReader =
+			INPUT_FACTORY.createXMLEventReader(new StringReader(source));
+		while (eventReader.hasNext())
+		{
+			XMLEvent event = eventReader.nextEvent();
+			if (!event.isStartDocument() && !event.isEndDocument())
+				events.add(event);
+		}
+		eventReader.close();
+		return events;
+	}
+	
+	/* A <world> element as written, split into the elements directly
+	 * inside it, each with its text and events. A world that was edited
+	 * only has the elements that changed parsed again, and a LevelEdit can
+	 * build just the elements it needs.
+	 */
+	static class WorldSource
+	{
+		private String text;
+		private XMLEvent start, end; //of the <world> itself
+		private ArrayList<String> elements = new ArrayList<String>();
+		private ArrayList<ArrayList<XMLEvent>> elementEvents =
+			new ArrayList<ArrayList<XMLEvent>>();
+		private ArrayList<String> bodySources = new ArrayList<String>();
+		private ArrayList<XMLEvent> events = new ArrayList<XMLEvent>();
+		
+		// Takes the events of elements unchanged since before from it
+		WorldSource(String t, WorldSource before) throws XMLStreamException
+		{
+			text = t;
+			int open = text.indexOf('>');
+			if(text.charAt(open - 1) == '/')
+			{
+				events = parseEvents(text);
+				start = events.get(0);
+				end = events.get(events.size() - 1);
+				return;
+			}
+			ArrayList<XMLEvent> tag = parseEvents(text.substring(0, open + 1) + "</world>");
+			start = tag.get(0);
+			end = tag.get(tag.size() - 1);
+			HashMap<String, ArrayList<XMLEvent>> reused = before == null ? null : before.byText();
+			int close = text.lastIndexOf("</world");
+			int depth = 0, from = -1;
+			for(int i = text.indexOf('<', open); i >= 0 && i < close; i = text.indexOf('<', i + 1))
+			{
+				String skipTo = text.startsWith("<!--", i) ? "-->"
+					: text.startsWith("<![CDATA[", i) ? "]]>"
+					: text.startsWith("<?", i) ? "?>" : null;
+				int stop = text.indexOf(skipTo == null ? ">" : skipTo, i);
+				if(stop < 0)
+					throw new XMLStreamException("Unterminated markup in <world>");
+				if(skipTo != null)
+				{
+					i = stop;
+					continue;
+				}
+				if(text.charAt(i + 1) == '/')
+				{
+					if(--depth == 0)
+						addElement(text.substring(from, stop + 1), reused);
+				}
+				else if(text.charAt(stop - 1) != '/')
+				{
+					if(depth++ == 0)
+						from = i;
+				}
+				else if(depth == 0)
+					addElement(text.substring(i, stop + 1), reused);
+				i = stop;
+			}
+			events.add(start);
+			for(ArrayList<XMLEvent> e : elementEvents)
+				events.addAll(e);
+			events.add(end);
+		}
+		
+		private void addElement(String source, HashMap<String, ArrayList<XMLEvent>> reused)
+			throws XMLStreamException
+		{
+			ArrayList<XMLEvent> e = reused == null ? null : reused.get(source);
+			if(e == null)
+				e = parseEvents(source);
+			elements.add(source);
+			elementEvents.add(e);
+			if(isBody(e))
+				bodySources.add(source);
+		}
+		
+		private static boolean isBody(ArrayList<XMLEvent> e)
+		{
+			return e.get(0).isStartElement()
+				&& e.get(0).asStartElement().getName().getLocalPart().equals("body");
+		}
+		
+		private HashMap<String, ArrayList<XMLEvent>> byText()
+		{
+			HashMap<String, ArrayList<XMLEvent>> map = new HashMap<String, ArrayList<XMLEvent>>();
+			for(int i = 0; i < elements.size(); i++)
+				map.put(elements.get(i), elementEvents.get(i));
+			return map;
+		}
+		
+		// The whole <world>
+		ArrayList<XMLEvent> getEvents() {
+			return events;
+		}
+		
+		// The text of each <body>, in the order they are built
+		ArrayList<String> getBodySources() {
+			return bodySources;
+		}
+		
+		/* The <world> with all its elements but only the bodies whose
+		 * flags are set, in the order of getBodySources().
+		 */
+		ArrayList<XMLEvent> getEvents(boolean[] bodies)
+		{
+			ArrayList<XMLEvent> some = new ArrayList<XMLEvent>();
+			some.add(start);
+			int body = 0;
+			for(ArrayList<XMLEvent> e : elementEvents)
+			{
+				if(!isBody(e) || bodies[body++])
+					some.addAll(e);
+			}
+			some.add(end);
+			return some;
+		}
+	}
+	
+	/* Reads a level file again, e.g. after it has been saved, in place of
+	 * the cached copy, and returns which of its <world>s differ from the
+	 * ones cached before; worlds that were not there before count as
+	 * changed. Only the changed ones are parsed again, and only they need
+	 * building again. A compiled file is simply dropped and mapped again on
+	 * next use, so all its levels count.
+	 */
+	public static boolean[] reloadLevels(String file)
+		throws IOException, XMLStreamException
+	{
+		if(file.endsWith(LevelCompiler.EXTENSION))
+		{
+			synchronized(WorldBuilder.class)
+			{
+				compiledIndex.remove(file);
+			}
+			boolean[] changed = new boolean[getLevelCount(file)];
+			Arrays.fill(changed, true);
+			return changed;
+		}
+		File f = getLevelFile(file);
+		InputStream in = f != null ? new FileInputStream(f)
+			: WorldBuilder.class.getResourceAsStream(file);
+		if(in == null)
+			throw new FileNotFoundException(file);
+		ArrayList<String> texts = splitWorlds(readText(in));
+		ArrayList<WorldSource> oldLevels;
+		synchronized(WorldBuilder.class)
+		{
+			oldLevels = levelIndex.get(file);
+		}
+		//a file caught half-saved fails to parse and leaves the cache alone
+		ArrayList<WorldSource> levels = new ArrayList<WorldSource>();
+		boolean[] changed = new boolean[texts.size()];
+		for(int i = 0; i < changed.length; i++)
+		{
+			WorldSource before = oldLevels == null || i >= oldLevels.size()
+				? null : oldLevels.get(i);
+			changed[i] = before == null || !texts.get(i).equals(before.text);
+			levels.add(changed[i] ? new WorldSource(texts.get(i), before) : before);
+		}
+		synchronized(WorldBuilder.class)
+		{
+			levelIndex.put(file, levels);
+		}
+		return changed;
+	}
+	
+	/* The level file on disk: the path itself if it names a file,
+	 * otherwise the classpath resource if that is a plain file. Null if
+	 * neither is, e.g. inside a jar.
+	 */
+	public static File getLevelFile(String file)
+	{
+		File f = new File(file);
+		if(f.isFile())
+			return f;
+		try {
+			URL url = WorldBuilder.class.getResource(file);
+			if(url != null && url.getProtocol().equals("file"))
+				f = new File(url.toURI());
+		}
+		catch (java.net.URISyntaxException e) {
+			return null;
+		}
+		return f.isFile() ? f : null;
+	}
+	
+	/* Maps a compiled level file straight into memory when it exists on
+	 * disk, otherwise reads the classpath resource into the heap once.
+	 */
+	private static synchronized CompiledLevels getCompiledLevels(String file)
+	{
+		CompiledLevels compiled = compiledIndex.get(file);
+		if(compiled != null)
+			return compiled;
+		try {
+			ByteBuffer data = null;
+			File f = getLevelFile(file);
+			if(f != null)
+			{
+				RandomAccessFile raf = new RandomAccessFile(f, "r");
+				FileChannel channel = raf.getChannel();
+				data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				raf.close();
+			}
+			else
+			{
+				InputStream in = WorldBuilder.class.getResourceAsStream(file);
+				if(in == null)
+					return null;
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				byte[] buf = new byte[8192];
+				for(int n = in.read(buf); n != -1; n = in.read(buf))
+					bytes.write(buf, 0, n);
+				in.close();
+				data = ByteBuffer.wrap(bytes.toByteArray());
+			}
+			compiled = new CompiledLevels(data);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+		compiledIndex.put(file, compiled);
+		return compiled;
+	}
+	
+	// A compiled level file's header, plus the data each level is built from
+	private static class CompiledLevels
+	{
+		private ByteBuffer data;
+		private String[] assets;
+		private int[] offsets;
+		
+		public CompiledLevels(ByteBuffer d) throws IOException
+		{
+			data = d;
+			ByteBuffer in = data.duplicate();
+			if(in.getInt() != LevelCompiler.MAGIC || in.getInt() != LevelCompiler.VERSION)
+				throw new IOException("Not a compiled level file");
+			assets = new String[in.getInt()];
+			for(int i = 0; i < assets.length; i++)
+			{
+				byte[] name = new byte[in.getShort()];
+				in.get(name);
+				assets[i] = new String(name, "UTF-8");
+			}
+			offsets = new int[in.getInt()];
+			for(int i = 0; i < offsets.length; i++)
+				offsets[i] = in.getInt();
+		}
+		
+		public int getLevelCount() {
+			return offsets.length;
+		}
+		
+		// Each build reads through its own view, so levels can load in parallel
+		public WackoWorld build(int level, boolean streamed)
+		{
+			if(level < 0 || level >= offsets.length)
+				return null;
+			ByteBuffer in = data.duplicate();
+			in.position(offsets[level]);
+			int wW = in.getInt(), wH = in.getInt(), iter = in.getInt();
+			float gX = in.getFloat(), gY = in.getFloat();
+			float antiGX = in.getFloat(), antiGY = in.getFloat();
+			String bgFileName = asset(in.getInt());
+			String broadphase = LevelCompiler.BROADPHASES[in.get()];
+			int chunkSize = in.getInt();
+			WackoWorld w = new WackoWorld(
+				gX, gY, wW, wH, iter, antiGX, antiGY, bgFileName == null ? "" : bgFileName);
+			w.setChunkSize(chunkSize);
+			
+			int layers = in.getInt();
+			for(int i = 0; i < layers; i++)
+			{
+				String image = asset(in.getInt());
+				float scroll = in.getFloat();
+				boolean tiled = in.get() != 0;
+				w.addLayer(new ParallaxLayer(image == null ? "" : image, scroll, tiled));
+			}
+			
+			int goals = in.getInt();
+			for(int i = 0; i < goals; i++)
+			{
+				int x = in.getInt(), y = in.getInt();
+				int width = in.getInt(), height = in.getInt();
+				String image = asset(in.getInt());
+				w.add(new Goal(x, y, width, height, image == null ? "" : image));
+			}
+			
+			int triggers = in.getInt();
+			for(int i = 0; i < triggers; i++)
+			{
+				byte type = in.get();
+				boolean round = in.get() != 0;
+				int x = in.getInt(), y = in.getInt();
+				int width = in.getInt(), height = in.getInt();
+				String image = asset(in.getInt());
+				TriggerZone zone = new TriggerZone(type, x, y, width, height, round,
+					image == null ? "" : image);
+				zone.setGravity(in.getFloat(), in.getFloat());
+				w.add(zone);
+			}
+			
+			int n = in.getInt();
+			byte[] bodyTypes = new byte[n], shapeTypes = new byte[n], flags = new byte[n];
+			in.get(bodyTypes);
+			in.get(shapeTypes);
+			in.get(flags);
+			int[] images = new int[n];
+			in.asIntBuffer().get(images);
+			in.position(in.position() + 4*n);
+			float[] values = new float[n*LevelCompiler.BODY_FLOATS];
+			in.asFloatBuffer().get(values);
+			in.position(in.position() + 4*values.length);
+			int[] paramCounts = new int[n];
+			in.asIntBuffer().get(paramCounts);
+			in.position(in.position() + 4*n);
+			for(int i = 0; i < n; i++)
+			{
+				Body b = null;
+				if(bodyTypes[i] == LevelCompiler.CHAR_BODY)
+					b = new CharBody(DEFAULT_SHAPE, DEFAULT_MASS);
+				else if(bodyTypes[i] == LevelCompiler.STATIC_BODY)
+					b = new StaticBody(DEFAULT_SHAPE);
+				else
+					b = new Body(DEFAULT_SHAPE, DEFAULT_MASS);
+				w.add(b);
+				float[] params = new float[paramCounts[i]];
+				in.asFloatBuffer().get(params);
+				in.position(in.position() + 4*params.length);
+				Shape s = buildShape(shapeTypes[i], flags[i], params);
+				b.setShape(s);
+				if(images[i] >= 0 && b instanceof DrawableBody)
+					((DrawableBody)b).setImage(assets[images[i]]);
+				int v = i*LevelCompiler.BODY_FLOATS;
+				b.set(s, values[v]);
+				b.setPosition(values[v+1], values[v+2]);
+				b.setRotation(values[v+3]);
+				b.setFriction(values[v+4]);
+				b.setRestitution(values[v+5]);
+				b.setGravityEffected((flags[i] & LevelCompiler.GRAVITY_EFFECTED) != 0);
+				b.setRotatable((flags[i] & LevelCompiler.ROTATABLE) != 0);
+				b.setMoveable((flags[i] & LevelCompiler.MOVEABLE) != 0);
+			}
+			w.setBroadphase(broadphase);
+			if(streamed)
+				w.enableChunks();
+			w.saveInitialState();
+			return w;
+		}
+		
+		private String asset(int index) {
+			return index < 0 ? null : assets[index];
+		}
+	}
+	
+	// A shape from its LevelCompiler type code, flags and parameters
+	static Shape buildShape(byte type, byte flags, float[] p)
+	{
+		if(type == LevelCompiler.BOX)
+			return new Box(p[0], p[1]);
+		else if(type == LevelCompiler.CIRCLE)
+			return new Circle(p[0]);
+		else if(type == LevelCompiler.LINE)
+		{
+			Line line = new Line(p[0], p[1], p[2], p[3]);
+			line.setBlocksInnerEdge((flags & LevelCompiler.BLOCKS_INNER_EDGE) != 0);
+			line.setBlocksOuterEdge((flags & LevelCompiler.BLOCKS_OUTER_EDGE) != 0);
+			return line;
+		}
+		ROVector2f[] verts = new ROVector2f[p.length/2];
+		for(int i = 0; i < verts.length; i++)
+			verts[i] = new Vector2f(p[2*i], p[2*i+1]);
+		return new Polygon(verts);
+	}
+	
+	// Plays back a level's pre-parsed events to the build methods below
+	private static class ListEventReader implements XMLEventReader
+	{
+		private ArrayList<XMLEvent> events;
+		private int next;
+		
+		public ListEventReader(ArrayList<XMLEvent> e) {
+			events = e;
+		}
+		
+		public boolean hasNext() {
+			return next < events.size();
+		}
+		
+		public XMLEvent nextEvent() throws XMLStreamException
+		{
+			if(!hasNext())
+				throw new NoSuchElementException();
+			return events.get(next++);
+		}
+		
+		public Object next()
+		{
+			if(!hasNext())
+				throw new NoSuchElementException();
+			return events.get(next++);
+		}
+		
+		public XMLEvent peek() {
+			return hasNext() ? events.get(next) : null;
+		}
+		
+		public String getElementText() throws XMLStreamException
+		{
+			StringBuilder text = new StringBuilder();
+			while(hasNext())
+			{
+				XMLEvent event = nextEvent();
+				if(event.isEndElement())
+					return text.toString();
+				if(event.isCharacters())
+					text.append(event.asCharacters().getData());
+			}
+			throw new XMLStreamException("Unexpected end of level");
+		}
+		
+		public XMLEvent nextTag() throws XMLStreamException
+		{
+			while(hasNext())
+			{
+				XMLEvent event = nextEvent();
+				if(event.isStartElement() || event.isEndElement())
+					return event;
+				if(event.isCharacters() && !event.asCharacters().isWhiteSpace())
+					throw new XMLStreamException("Expected a tag");
+			}
+			throw new XMLStreamException("Unexpected end of level");
+		}
+		
+		public Object getProperty(String name) {
+			throw new IllegalArgumentException(name);
+		}
+		
+		public void close() {}
+	}
 
 	public static void modifyBody(XMLEventReader eventReader, Body body)
 		throws XMLStreamException
@@ -385,6 +1037,28 @@ public class WorldBuilder {
 		return null;
 	}
 	
+	// <layer image="..." scroll="2" tiled="true"/>, drawn over the background
+	@SuppressWarnings("unchecked")
+	public static ParallaxLayer buildLayer(StartElement startElement)
+	{
+		String image = "";
+		float scroll = ParallaxLayer.DEFAULT_SCROLL_FACTOR;
+		boolean tiled = false;
+		Iterator<Attribute> attributes = startElement.getAttributes();
+		while (attributes.hasNext()) {
+			Attribute attribute = attributes.next();
+			String attName = attribute.getName().toString();
+			String attValue = attribute.getValue();
+			if (attName.equals("image"))
+				image = attValue;
+			if (attName.equals("scroll"))
+				scroll = Float.parseFloat(attValue);
+			if (attName.equals("tiled"))
+				tiled = attValue.equals("true");
+		}
+		return new ParallaxLayer(image, scroll, tiled);
+	}
+	
 	public static Goal buildGoal(XMLEventReader eventReader)
 		throws XMLStreamException
 	{
@@ -432,6 +1106,95 @@ public class WorldBuilder {
 		}
 		return null;
 	}
+	
+	/* <trigger type="checkpoint|hazard|gravity|goal"> with the same elements
+	 * as a goal, plus <round>, and <gravityX>/<gravityY> for gravity
+	 * switches. A goal declared this way is always round.
+	 */
+	@SuppressWarnings("unchecked")
+	public static TriggerZone buildTrigger(StartElement triggerElement,
+		XMLEventReader eventReader) throws XMLStreamException
+	{
+		byte type = TriggerZone.HAZARD;
+		Iterator<Attribute> attributes = triggerElement.getAttributes();
+		while (attributes.hasNext()) {
+			Attribute attribute = attributes.next();
+			if (attribute.getName().toString().equals("type"))
+				type = TriggerZone.parseType(attribute.getValue());
+		}
+		if(type < 0)
+		{
+			System.out.println("Unknown trigger type");
+			type = TriggerZone.HAZARD;
+		}
+		int xPos = 0, yPos = 0, width = 0, height = 0;
+		float gX = 0f, gY = 0f;
+		boolean round = false;
+		String imgFileName = "";
+		while(eventReader.hasNext())
+		{
+			XMLEvent event = eventReader.nextEvent();
+			if(event.isStartElement())
+			{
+				StartElement startElement = event.asStartElement();
+				String aspect = startElement.getName().getLocalPart();
+				if(aspect.equals("x"))
+				{
+					event = eventReader.nextEvent();
+					xPos = Integer.parseInt(event.asCharacters().getData());
+				}
+				else if(aspect.equals("y"))
+				{
+					event = eventReader.nextEvent();
+					yPos = Integer.parseInt(event.asCharacters().getData());
+				}
+				else if(aspect.equals("image"))
+				{
+					event = eventReader.nextEvent();
+					imgFileName = event.asCharacters().getData();
+				}
+				else if(aspect.equals("width"))
+				{
+					event = eventReader.nextEvent();
+					width = Integer.parseInt(event.asCharacters().getData());
+				}
+				else if(aspect.equals("height"))
+				{
+					event = eventReader.nextEvent();
+					height = Integer.parseInt(event.asCharacters().getData());
+				}
+				else if(aspect.equals("round"))
+				{
+					event = eventReader.nextEvent();
+					round = event.asCharacters().getData().equals("true");
+				}
+				else if(aspect.equals("gravityX"))
+				{
+					event = eventReader.nextEvent();
+					gX = Float.parseFloat(event.asCharacters().getData());
+				}
+				else if(aspect.equals("gravityY"))
+				{
+					event = eventReader.nextEvent();
+					gY = Float.parseFloat(event.asCharacters().getData());
+				}
+			}
+			else if(event.isEndElement())
+			{
+				EndElement endElement = event.asEndElement();
+				if(endElement.getName().getLocalPart().equals("trigger"))
+				{
+					if(type == TriggerZone.GOAL)
+						return new Goal(xPos, yPos, width, height, imgFileName);
+					TriggerZone zone = new TriggerZone(
+						type, xPos, yPos, width, height, round, imgFileName);
+					zone.setGravity(gX, gY);
+					return zone;
+				}
+			}
+		}
+		return null;
+	}
 
 
 }
\ No newline at end of file
@@ -0,0 +1,433 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import net.phys2d.math.Vector2f;
+import net.phys2d.raw.*;
+import net.phys2d.raw.shapes.AABox;
+import net.phys2d.raw.shapes.Shape;
+
+/* Streams a large level's bodies in and out of a WackoWorld by chunk.
+ * The world is cut into square chunks; only the chunks within
+ * ACTIVE_RADIUS of bob's chunk have their bodies in the world. The rest
+ * are kept as compact byte records in the same body encoding as
+ * LevelCompiler, shape parameters and all, so a far chunk costs its
+ * bytes rather than its Body objects, and a step only pays for what is
+ * near bob. Bodies are filed under the chunks their bounding boxes
+ * overlap when they are stored, so moving bodies follow their chunk, and
+ * one comes back as soon as any of its chunks is active; a long floor
+ * stays while bob stands on any part of it. Bob only moves the active
+ * chunks once he is a quarter chunk past the edge of the centre one, so
+ * standing on a boundary does not stream the same bodies back and forth.
+ * Bob, bodies with images and bodies held by joints always stay in the
+ * world.
+ */
+public class WorldChunks
+{
+	public static final int ACTIVE_RADIUS = 1; //chunks each way from bob's
+	private static final int SWEEP_STEPS = 60; //between checks for strays
+	private static final int RECORD_FLOATS = 9;
+
+	private int chunkSize, columns, rows;
+	private byte[][] initial; //each chunk as the level was built
+	private ArrayList<ArrayList<byte[]>> stored; //records of inactive chunks
+	private ArrayList<Span> spans; //stored bodies covering several chunks
+	private ArrayList<Span> initialSpans;
+	private boolean[] active;
+	private int centreChunk;
+	private int stepsToSweep;
+	private int generation; //goes up each time static bodies come or go
+	private HashSet<Body> pinned; //bodies in joints
+	private BodyList moving; //scratch for update
+	private BodyList[] byChunk; //scratch for store, one list per chunk
+	private BodyList one; //scratch for store
+	private int c0, r0, c1, r1; //chunks the last body given to range() covers
+
+	// A stored body and the chunks it covers, any of which brings it back
+	private static class Span
+	{
+		private int c0, r0, c1, r1;
+		private byte[] record;
+
+		Span(int c0, int r0, int c1, int r1, byte[] record)
+		{
+			this.c0 = c0;
+			this.r0 = r0;
+			this.c1 = c1;
+			this.r1 = r1;
+			this.record = record;
+		}
+	}
+
+	// Moves every body that may be streamed out of w into storage
+	public WorldChunks(WackoWorld w, int size)
+	{
+		chunkSize = size;
+		columns = Math.max(1, (w.getWidth() + size - 1) / size);
+		rows = Math.max(1, (w.getHeight() + size - 1) / size);
+		int n = columns * rows;
+		stored = new ArrayList<ArrayList<byte[]>>(n);
+		for(int i = 0; i < n; i++)
+			stored.add(new ArrayList<byte[]>());
+		spans = new ArrayList<Span>();
+		active = new boolean[n];
+		centreChunk = -1;
+		moving = new BodyList();
+		byChunk = new BodyList[n];
+		one = new BodyList();
+		pinned = new HashSet<Body>();
+		JointList joints = w.getJoints();
+		for(int i = 0; i < joints.size(); i++)
+		{
+			pinned.add(joints.get(i).getBody1());
+			pinned.add(joints.get(i).getBody2());
+		}
+		//every chunk starts out stored
+		Arrays.fill(active, true);
+		store(w, true);
+		initial = new byte[n][];
+		for(int i = 0; i < n; i++)
+			initial[i] = merge(stored.get(i));
+		initialSpans = new ArrayList<Span>(spans);
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public int getChunkCount() {
+		return columns * rows;
+	}
+
+	public int getActiveCount()
+	{
+		int count = 0;
+		for(int i = 0; i < active.length; i++)
+		{
+			if(active[i])
+				count++;
+		}
+		return count;
+	}
+
+	// Bytes held for the chunks that are not in the world
+	public long getStoredBytes()
+	{
+		long bytes = 0;
+		for(ArrayList<byte[]> records : stored)
+			for(byte[] r : records)
+				bytes += r.length;
+		for(Span s : spans)
+			bytes += s.record.length;
+		return bytes;
+	}
+
+	/* Goes up whenever static bodies are streamed in or out, which only
+	 * happens when the active chunks change, as static bodies never move.
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/* Streams chunks in and out once bob has left the centre chunk, and
+	 * every SWEEP_STEPS steps stores bodies that have wandered out of the
+	 * active chunks on their own. Call before each step.
+	 */
+	public void update(WackoWorld w)
+	{
+		boolean recentre = hasLeftCentre(w.getBob());
+		if(!recentre && --stepsToSweep > 0)
+			return;
+		stepsToSweep = SWEEP_STEPS;
+		if(recentre)
+		{
+			int chunk = chunkOf(w.getBob());
+			centreChunk = chunk;
+			int c = chunk % columns, r = chunk / columns;
+			for(int i = 0; i < active.length; i++)
+			{
+				active[i] = Math.abs(i % columns - c) <= ACTIVE_RADIUS
+					&& Math.abs(i / columns - r) <= ACTIVE_RADIUS;
+			}
+		}
+		boolean staticChanged = store(w, false);
+		for(int i = 0; i < active.length; i++)
+		{
+			if(active[i] && stored.get(i).size() > 0)
+				staticChanged |= load(w, i);
+		}
+		int kept = 0;
+		for(int i = 0; i < spans.size(); i++)
+		{
+			Span s = spans.get(i);
+			if(isActive(s.c0, s.r0, s.c1, s.r1))
+				staticChanged |= read(w, s.record);
+			else
+				spans.set(kept++, s);
+		}
+		while(spans.size() > kept)
+			spans.remove(spans.size() - 1);
+		if(staticChanged)
+			generation++;
+	}
+
+	// Whether bob is a quarter chunk or more outside the centre chunk
+	private boolean hasLeftCentre(Body bob)
+	{
+		int chunk = chunkOf(bob);
+		if(centreChunk < 0)
+			return true;
+		if(chunk == centreChunk)
+			return false;
+		float margin = chunkSize/4f;
+		float left = (centreChunk % columns) * chunkSize, top = (centreChunk / columns) * chunkSize;
+		float x = bob.getPosition().getX(), y = bob.getPosition().getY();
+		return x < left - margin || x > left + chunkSize + margin
+			|| y < top - margin || y > top + chunkSize + margin;
+	}
+
+	/* Drops the streamed bodies in w and puts every chunk back the way the
+	 * level was built. The next update streams in the chunks around bob.
+	 */
+	public void reset(WackoWorld w)
+	{
+		Arrays.fill(active, false);
+		BodyList bodies = w.getBodies();
+		moving.clear();
+		for(int i = 0; i < bodies.size(); i++)
+		{
+			if(isStreamed(bodies.get(i)))
+				moving.add(bodies.get(i));
+		}
+		for(int i = 0; i < moving.size(); i++)
+			remove(w, moving.get(i));
+		for(int i = 0; i < stored.size(); i++)
+		{
+			stored.get(i).clear();
+			if(initial[i].length > 0)
+				stored.get(i).add(initial[i]);
+		}
+		spans.clear();
+		spans.addAll(initialSpans);
+		centreChunk = -1;
+		generation++;
+	}
+
+	// Whether b is one of the bodies that come and go with their chunk
+	public boolean isStreamed(Body b) {
+		return !(b instanceof DrawableBody) && !pinned.contains(b);
+	}
+
+	/* Writes out and removes the streamed bodies outside the active
+	 * chunks. Returns whether any of them were static.
+	 */
+	private boolean store(WackoWorld w, boolean all)
+	{
+		BodyList bodies = w.getBodies();
+		moving.clear();
+		boolean anyStatic = false;
+		for(int i = 0; i < bodies.size(); i++)
+		{
+			Body b = bodies.get(i);
+			if(!isStreamed(b))
+				continue;
+			range(b);
+			if(all || !isActive(c0, r0, c1, r1))
+			{
+				moving.add(b);
+				anyStatic |= b.isStatic();
+			}
+		}
+		if(moving.size() == 0)
+			return false;
+		//bodies going to the same chunk are written as one record
+		for(int i = 0; i < moving.size(); i++)
+		{
+			Body b = moving.get(i);
+			range(b);
+			if(c0 != c1 || r0 != r1)
+			{
+				one.clear();
+				one.add(b);
+				spans.add(new Span(c0, r0, c1, r1, write(one)));
+				continue;
+			}
+			int chunk = r0*columns + c0;
+			if(byChunk[chunk] == null)
+				byChunk[chunk] = new BodyList();
+			byChunk[chunk].add(b);
+		}
+		for(int i = 0; i < byChunk.length; i++)
+		{
+			if(byChunk[i] != null && byChunk[i].size() > 0)
+			{
+				stored.get(i).add(write(byChunk[i]));
+				byChunk[i].clear();
+			}
+		}
+		for(int i = 0; i < moving.size(); i++)
+			remove(w, moving.get(i));
+		return anyStatic;
+	}
+
+	private void remove(WackoWorld w, Body b)
+	{
+		w.clearArbiters(b);
+		w.remove(b);
+	}
+
+	/* Builds a stored chunk's bodies and adds them to the world. Returns
+	 * whether any of them were static.
+	 */
+	private boolean load(WackoWorld w, int chunk)
+	{
+		ArrayList<byte[]> records = stored.get(chunk);
+		boolean anyStatic = false;
+		for(byte[] record : records)
+			anyStatic |= read(w, record);
+		records.clear();
+		return anyStatic;
+	}
+
+	private int chunkOf(Body b) {
+		return row(b.getPosition().getY())*columns + column(b.getPosition().getX());
+	}
+
+	private int column(float x)
+	{
+		int c = (int)Math.floor(x / chunkSize);
+		return Math.min(columns - 1, Math.max(0, c));
+	}
+
+	private int row(float y)
+	{
+		int r = (int)Math.floor(y / chunkSize);
+		return Math.min(rows - 1, Math.max(0, r));
+	}
+
+	// Sets c0, r0, c1 and r1 to the chunks b's bounding box covers
+	private void range(Body b)
+	{
+		AABox bounds = b.getShape().getBounds();
+		float cx = b.getPosition().getX() + bounds.getOffsetX();
+		float cy = b.getPosition().getY() + bounds.getOffsetY();
+		c0 = column(cx - bounds.getWidth()/2);
+		c1 = column(cx + bounds.getWidth()/2);
+		r0 = row(cy - bounds.getHeight()/2);
+		r1 = row(cy + bounds.getHeight()/2);
+	}
+
+	private boolean isActive(int c0, int r0, int c1, int r1)
+	{
+		for(int r = r0; r <= r1; r++)
+			for(int c = c0; c <= c1; c++)
+				if(active[r*columns + c])
+					return true;
+		return false;
+	}
+
+	/* Record layout: int count, then per body byte body type, byte shape
+	 * type, byte flags, float mass, x, y, rotation, friction, restitution,
+	 * velocity x and y, angular velocity, short parameter count and the
+	 * shape parameters.
+	 */
+	private static byte[] write(BodyList bodies)
+	{
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(bodies.size());
+			for(int i = 0; i < bodies.size(); i++)
+			{
+				Body b = bodies.get(i);
+				out.writeByte(b.isStatic() ? LevelCompiler.STATIC_BODY
+					: LevelCompiler.DEFAULT_BODY);
+				out.writeByte(LevelCompiler.shapeCode(b.getShape()));
+				out.writeByte(LevelCompiler.flags(b));
+				out.writeFloat(b.getMass());
+				out.writeFloat(b.getPosition().getX());
+				out.writeFloat(b.getPosition().getY());
+				out.writeFloat(b.getRotation());
+				out.writeFloat(b.getFriction());
+				out.writeFloat(b.getRestitution());
+				out.writeFloat(b.getVelocity().getX());
+				out.writeFloat(b.getVelocity().getY());
+				out.writeFloat(b.getAngularVelocity());
+				float[] params = LevelCompiler.shapeParams(b.getShape());
+				out.writeShort(params.length);
+				for(int k = 0; k < params.length; k++)
+					out.writeFloat(params[k]);
+			}
+			out.flush();
+			return bytes.toByteArray();
+		}
+		catch(IOException e) {
+			//nothing here does I/O
+			throw new RuntimeException(e);
+		}
+	}
+
+	/* Reads every record joined end to end in records. Returns whether any
+	 * of the bodies read were static.
+	 */
+	private static boolean read(WackoWorld w, byte[] records)
+	{
+		ByteBuffer in = ByteBuffer.wrap(records);
+		float[] v = new float[RECORD_FLOATS];
+		boolean anyStatic = false;
+		//Body ids come from a shared counter; see LevelLoader.build
+		synchronized(LevelLoader.class)
+		{
+			while(in.hasRemaining())
+			{
+				int n = in.getInt();
+				for(int i = 0; i < n; i++)
+				{
+					byte bodyType = in.get(), shapeType = in.get(), flags = in.get();
+					for(int k = 0; k < RECORD_FLOATS; k++)
+						v[k] = in.getFloat();
+					float[] params = new float[in.getShort()];
+					for(int k = 0; k < params.length; k++)
+						params[k] = in.getFloat();
+					Body b = null;
+					if(bodyType == LevelCompiler.STATIC_BODY)
+					{
+						b = new StaticBody(WorldBuilder.DEFAULT_SHAPE);
+						anyStatic = true;
+					}
+					else
+						b = new Body(WorldBuilder.DEFAULT_SHAPE, WorldBuilder.DEFAULT_MASS);
+					w.add(b);
+					Shape s = WorldBuilder.buildShape(shapeType, flags, params);
+					b.setShape(s);
+					b.set(s, v[0]);
+					b.setPosition(v[1], v[2]);
+					b.setRotation(v[3]);
+					b.setFriction(v[4]);
+					b.setRestitution(v[5]);
+					if(v[6] != 0 || v[7] != 0)
+						b.adjustVelocity(new Vector2f(v[6], v[7]));
+					if(v[8] != 0)
+						b.adjustAngularVelocity(v[8]);
+					b.setGravityEffected((flags & LevelCompiler.GRAVITY_EFFECTED) != 0);
+					b.setRotatable((flags & LevelCompiler.ROTATABLE) != 0);
+					b.setMoveable((flags & LevelCompiler.MOVEABLE) != 0);
+				}
+			}
+		}
+		return anyStatic;
+	}
+
+	private static byte[] merge(ArrayList<byte[]> records)
+	{
+		if(records.size() == 1)
+			return records.get(0);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for(byte[] r : records)
+			bytes.write(r, 0, r.length);
+		return bytes.toByteArray();
+	}
+}
\ No newline at end of file